@@ -24,6 +24,7 @@ public class GQueryCLI {
 	private MasterQuery masterQuery = null;
 	private File gQueryIndexDir = null;
 	private int numberProcessors = -1;
+	private int residentIndexMB = 0;
 	private File outputFile = null;
 	private File bedVcfFile = null;
 	private User user = null;
@@ -46,7 +47,7 @@ public class GQueryCLI {
 			//build a reusable query object
 			if (masterQuery == null) {
 				Util.pl("Building the MasterQuery engine...");
-				masterQuery = new MasterQuery (gQueryIndexDir);
+				masterQuery = new MasterQuery (gQueryIndexDir, numberProcessors, 0, residentIndexMB, 0, 0, false);
 				Util.pl("\t"+masterQuery.getBuildInfo());
 				if (masterQuery.isInitialized() == false) {
 					lg.error("ERROR: failed to initialize MasterQuery, aborting.");
@@ -74,7 +75,7 @@ public class GQueryCLI {
 				String[] a = Util.WHITESPACE.split(argsString);
 				StringBuilder sb = new StringBuilder();
 				for (int i=0; i< a.length; i++) {
-					if (a[i].equals("-g")) i++;
+					if (a[i].equals("-g") || a[i].equals("-x")) i++;
 					else if (a[i].equals("-i") || a[i].equals("-c")) continue;
 					else {
 						sb.append(a[i]);
@@ -187,6 +188,7 @@ public class GQueryCLI {
 					
 					case 's': outputFile = new File(args[++i]); break;
 					case 'c': numberProcessors = Integer.parseInt(args[++i]); break;
+					case 'x': residentIndexMB = Integer.parseInt(args[++i]); break;
 					case 'h': printMenu = true; break;
 					case 'i': interactive = true; break;
 					
@@ -282,7 +284,10 @@ public class GQueryCLI {
 				
 				"-s Save the json output to this file\n"+
 				"-i Run an interactive session to enable sequential queries\n"+
-				"-c Number processors to use, defaults to all\n"+
+				"-c Number processors to use for index lookups, defaults to all but one. Twice this\n"+
+				"     number of threads are used for fetching data from the tabix files.\n"+
+				"-x MB of memory for holding the query indexes in memory, directories that don't fit\n"+
+				"     are searched from disk. Speeds up large and interactive sessions, defaults to 0.\n"+
 				"-h Print this help menu\n"+
 
 				"\nExamples:\n"+
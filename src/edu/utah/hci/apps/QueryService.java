@@ -49,6 +49,7 @@ public class QueryService implements ServletContextListener {
 	private static Key key = null;
 	private static int minPerSession = 0;
 	private static boolean initialized = true;
+	public static final int DEFAULT_RELOAD_CHECK_SECONDS = 60;
 	private static boolean authorizing = false;
 
 	@GET
@@ -80,6 +81,24 @@ public class QueryService implements ServletContextListener {
 		else return Response.status(400).entity("Invalid request, missing query bed or vcf region(s)? or fetchOptions in the input params "+options+", see "+helpUrl).build();
 	}
 
+	/**Returns the pool size, active threads, and queue depth of the shared query thread pools. Needs a valid key when authorizing.*/
+	@GET
+	@Path("/executorStats")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response processExecutorStatsRequest(@Context UriInfo ui){
+		if (masterQuery == null) return Response.status(500).entity("The query service failed initialization, contact admin "+helpUrl).build();
+		
+		//Authenticating? Check their key
+		if (authorizing){
+			//get the key, if this comes back null then something is wrong with the authorization
+			if (fetchKey() == null) return Response.status(500).entity("The query service failed authorization initialization, contact admin "+helpUrl).build();
+			User user = new User(ui.getQueryParameters().getFirst("key"), this);
+			if (user.isExpired()) return Response.status(401).entity("Your authentication key has expired, fetch another, if needed contact "+helpUrl).build();
+			if (user.getErrorMessage() != null) return Response.status(400).entity("Problem parsing user info, contact "+helpUrl+"\n"+user.getErrorMessage()).build();
+		}
+		return Response.status(200).entity(masterQuery.getExecutorStats().toString(1)).type("application/json").build();
+	}
+
 	@POST
 	@Consumes(MediaType.MULTIPART_FORM_DATA)
 	@Produces(MediaType.APPLICATION_JSON)
@@ -162,6 +181,7 @@ public class QueryService implements ServletContextListener {
 
 	public void contextDestroyed(ServletContextEvent arg) {
 		lg.info("STOPPING the GQueryService...");
+		if (masterQuery != null) masterQuery.shutdown();
 		masterQuery = null;
 	}
 
@@ -175,12 +195,29 @@ public class QueryService implements ServletContextListener {
 		helpUrl = Util.fetchStringParam(sc, "helpUrl");
 		File path2DataDir = Util.fetchFile(sc, "path2DataDir", true);
 		String ae = Util.fetchStringParam(sc, "authorizationEnabled");
+		//optional
+		int residentIndexMB = fetchOptionalIntParam(sc, "residentIndexMB");
+		int numberLookupThreads = fetchOptionalIntParam(sc, "numberLookupThreads");
+		int numberFetchThreads = fetchOptionalIntParam(sc, "numberFetchThreads");
+		int maxOpenReaders = fetchOptionalIntParam(sc, "maxOpenReaders");
+		int blockCacheMB = fetchOptionalIntParam(sc, "blockCacheMB");
+		int resultCacheMB = fetchOptionalIntParam(sc, "resultCacheMB");
+		int reloadCheckSeconds = fetchOptionalIntParam(sc, "reloadCheckSeconds");
+		boolean lazyLoadIndexes = "true".equalsIgnoreCase(sc.getInitParameter("lazyLoadIndexes"));
 		
 		lg.info("tempDir: "+tempDir);
 		lg.info("helpUrl: "+helpUrl);
 		lg.info("path2DataDir: "+path2DataDir);
 		lg.info("memory: "+Util.memoryUsage());
 		lg.info("authorizationEnabled: "+ae);
+		lg.info("residentIndexMB: "+residentIndexMB);
+		lg.info("numberLookupThreads: "+numberLookupThreads);
+		lg.info("numberFetchThreads: "+numberFetchThreads);
+		lg.info("maxOpenReaders: "+maxOpenReaders);
+		lg.info("blockCacheMB: "+blockCacheMB);
+		lg.info("resultCacheMB: "+resultCacheMB);
+		lg.info("reloadCheckSeconds: "+reloadCheckSeconds);
+		lg.info("lazyLoadIndexes: "+lazyLoadIndexes);
 
 		if (path2DataDir == null || tempDir == null || ae == null){
 			lg.fatal("ERROR: failed to parse the required params from the web.xml doc, aborting.");
@@ -237,7 +274,9 @@ public class QueryService implements ServletContextListener {
 		//make MasterQuery object?
 		if (initialized) {
 			try {
-				masterQuery = new MasterQuery (path2DataDir);
+				masterQuery = new MasterQuery (path2DataDir, numberLookupThreads, numberFetchThreads, residentIndexMB, maxOpenReaders, blockCacheMB, lazyLoadIndexes);
+				if (resultCacheMB >= 0) masterQuery.enableResultCache(resultCacheMB);
+				if (reloadCheckSeconds >= 0) masterQuery.startIndexReloader(reloadCheckSeconds > 0 ? reloadCheckSeconds : DEFAULT_RELOAD_CHECK_SECONDS);
 			} catch (IOException e) {
 				lg.fatal("ERROR: failed to initialize the MasterQuery, aborting.\n"+Util.getStackTrace(e));
 				initialized = false;
@@ -253,6 +292,18 @@ public class QueryService implements ServletContextListener {
 		createAvailableOptions();
 	}
 
+	/**Returns the optional int web.xml param or 0 if absent or not an int.*/
+	private static int fetchOptionalIntParam(ServletContext sc, String name) {
+		String value = sc.getInitParameter(name);
+		if (value == null) return 0;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			lg.warn("Failed to parse an integer from the web.xml for '"+name+"' "+value+", using 0");
+			return 0;
+		}
+	}
+
 	private void createAvailableOptions() {
 		availableOptions = new HashSet<String>();
 		availableOptions.add("vcf");
@@ -0,0 +1,76 @@
+package edu.utah.hci.indexer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import edu.utah.hci.misc.RoaringBitmap;
+import edu.utah.hci.query.BinaryQueryIndex;
+
+/**Collects the intervals written to a chrXX.qi.bed.gz and saves them as a binary chrXX.qi.bin, see BinaryQueryIndex for the layout.
+ * Each distinct set of file ids in the dictionary is saved once as a RoaringBitmap, the intervals just reference it. Not thread safe.*/
+public class BinaryQueryIndexWriter {
+
+	//fields
+	private File binaryFile;
+	private FileIdSetDictionary setDictionary;
+	private int[] starts = new int[1024];
+	private int[] stops = new int[1024];
+	private int[] setIndexes = new int[1024];
+	private int numberIntervals = 0;
+
+	public BinaryQueryIndexWriter(File binaryFile, FileIdSetDictionary setDictionary) {
+		this.binaryFile = binaryFile;
+		this.setDictionary = setDictionary;
+	}
+
+	/**Adds an interbase interval, these must be added in order.*/
+	public void addInterval(int start, int stop, int setId) {
+		if (numberIntervals == starts.length) {
+			long newLength = starts.length + (starts.length >> 1);
+			if (newLength > Integer.MAX_VALUE - 8) newLength = Integer.MAX_VALUE - 8;
+			if (newLength == starts.length) throw new IllegalStateException("Too many intervals for a binary query index");
+			starts = Arrays.copyOf(starts, (int)newLength);
+			stops = Arrays.copyOf(stops, (int)newLength);
+			setIndexes = Arrays.copyOf(setIndexes, (int)newLength);
+		}
+		starts[numberIntervals] = start;
+		stops[numberIntervals] = stop;
+		setIndexes[numberIntervals++] = setId;
+	}
+
+	/**Writes the binary index to a temp file then renames it so readers never see a partial file.*/
+	public void write() throws IOException {
+		int numberSets = setDictionary.getNumberSets();
+		RoaringBitmap[] bitmaps = new RoaringBitmap[numberSets];
+		for (int i=0; i< numberSets; i++) bitmaps[i] = setDictionary.fetchBitmap(i);
+
+		File tmp = new File(binaryFile.getParentFile(), binaryFile.getName()+".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+		try {
+			out.writeInt(BinaryQueryIndex.MAGIC);
+			out.writeInt(BinaryQueryIndex.VERSION);
+			out.writeInt(numberIntervals);
+			out.writeInt(numberSets);
+			for (int i=0; i< numberIntervals; i++) out.writeInt(starts[i]);
+			for (int i=0; i< numberIntervals; i++) out.writeInt(stops[i]);
+			for (int i=0; i< numberIntervals; i++) out.writeInt(setIndexes[i]);
+			long offset = 0;
+			for (int i=0; i< numberSets; i++) {
+				out.writeLong(offset);
+				offset += bitmaps[i].getSerializedSize();
+			}
+			out.writeLong(offset);
+			for (RoaringBitmap rb: bitmaps) rb.serialize(out);
+		} finally {
+			out.close();
+		}
+		//replaced in one step so there's never a moment without a chrXX.qi.bin
+		Files.move(tmp.toPath(), binaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,158 @@
+package edu.utah.hci.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Future;
+
+import edu.utah.hci.apps.GQueryIndexer;
+
+/**Loads the regions for one chromosome of a directory, sweeps them, writes the chrXX.qi.bed.gz index, and checkpoints it.
+ * Waits for an estimate of the memory it needs from the GQueryIndexer's budget before loading. The data files
+ * are parsed and the index written by tasks on the GQueryIndexer's worker pool, this just coordinates.*/
+public class ChromIndexer implements Runnable {
+
+	//heap bytes estimated per compressed data file byte, covers the packed events, array growth, and the sort workspace
+	private static final int HEAP_BYTES_PER_COMPRESSED_BYTE = 4;
+
+	//fields
+	private boolean failed = false;
+	private GQueryIndexer gQueryIndexer;
+	private DirectoryIndexer directoryIndexer;
+	private String chrom;
+	private int chromLength;
+	private HashSet<File> filesToParse;
+	private boolean mergePrior;
+	private File priorIndexFile;
+	private File queryIndexFile;
+	private int memoryMB;
+	private SweepLineIndexBuilder index = null;
+	private ArrayList<SweepLineIndexBuilder> loadedRegions = new ArrayList<SweepLineIndexBuilder>();
+	private long numberParsed = 0;
+	private long numberPrior = 0;
+
+	public ChromIndexer (GQueryIndexer gQueryIndexer, DirectoryIndexer directoryIndexer, String chrom, int chromLength, ArrayList<File> filesToParse,
+			File priorIndexFile, File queryIndexFile, long compressedBytes) {
+		this.gQueryIndexer = gQueryIndexer;
+		this.directoryIndexer = directoryIndexer;
+		this.chrom = chrom;
+		this.chromLength = chromLength;
+		this.filesToParse = new HashSet<File>(filesToParse);
+		this.priorIndexFile = priorIndexFile;
+		mergePrior = priorIndexFile != null;
+		this.queryIndexFile = queryIndexFile;
+		memoryMB = (int)Math.min(Integer.MAX_VALUE, (compressedBytes * HEAP_BYTES_PER_COMPRESSED_BYTE) / 1048576l + 1);
+	}
+
+	public void run() {
+		int acquired = 0;
+		try {
+			acquired = gQueryIndexer.acquireMemory(memoryMB);
+			loadPrior();
+
+			//parse the data files
+			ArrayList<QueryIndexFileLoader> loaders = new ArrayList<QueryIndexFileLoader>();
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			for (File f: filesToParse) {
+				QueryIndexFileLoader loader = new QueryIndexFileLoader(gQueryIndexer, this, f);
+				loaders.add(loader);
+				futures.add(gQueryIndexer.getWorkerPool().submit(loader));
+			}
+			for (Future<?> f: futures) f.get();
+			for (QueryIndexFileLoader l: loaders) {
+				if (l.isFailed()) throw new Exception("ERROR: File Loader issue! \n"+l);
+			}
+
+			//save the index for this chrom
+			QueryIndexWriter writer = createWriter();
+			gQueryIndexer.getWorkerPool().submit(writer).get();
+			if (writer.isFailed()) throw new Exception("ERROR: Index Writer issue! \n"+writer);
+			directoryIndexer.checkpoint(chrom);
+
+		} catch (Exception e) {
+			failed = true;
+			System.err.println("Error: indexing "+this);
+			e.printStackTrace();
+		} finally {
+			clear();
+			gQueryIndexer.releaseMemory(acquired);
+		}
+	}
+	
+	/**If updating, loads the prior intervals from the published index.*/
+	void loadPrior() throws IOException {
+		if (mergePrior == false) return;
+		SweepLineIndexBuilder prior = new SweepLineIndexBuilder();
+		numberPrior = directoryIndexer.loadPriorIntervals(priorIndexFile, prior);
+		synchronized (this) {
+			loadedRegions.add(prior);
+		}
+	}
+	
+	/**Merges the regions from each loader into one index and returns a writer for it.*/
+	synchronized QueryIndexWriter createWriter() {
+		if (loadedRegions.size() == 0) index = new SweepLineIndexBuilder();
+		else index = SweepLineIndexBuilder.merge(loadedRegions);
+		return new QueryIndexWriter(index, chrom, directoryIndexer.getNumberFileIds(), queryIndexFile);
+	}
+	
+	/**Drops the index once written.*/
+	synchronized void clear() {
+		index = null;
+		loadedRegions.clear();
+	}
+	
+	void setFailed() {
+		failed = true;
+	}
+
+	/**Called by the QueryIndexFileLoaders once they've loaded all of their regions for this chrom, 
+	 * these are merged when writing. Thread safe.*/
+	public synchronized void addRegions (SweepLineIndexBuilder regions) {
+		loadedRegions.add(regions);
+		numberParsed+= regions.getNumberRegions();
+	}
+
+	/**Returns true if records from this file are to be added.*/
+	public boolean isToParse(File dataFile) {
+		return filesToParse.contains(dataFile);
+	}
+	
+	public HashSet<File> getFilesToParse() {
+		return filesToParse;
+	}
+
+	public int getMemoryMB() {
+		return memoryMB;
+	}
+
+	public String getStats() {
+		if (mergePrior) return chrom+":0-"+chromLength+"\t"+numberParsed+"\t"+numberPrior+" prior";
+		return chrom+":0-"+chromLength+"\t"+numberParsed;
+	}
+
+	public String toString() {
+		return directoryIndexer.getDir()+" "+chrom+":0-"+chromLength;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public String getChrom() {
+		return chrom;
+	}
+
+	public int getChromLength() {
+		return chromLength;
+	}
+
+	public long getNumberParsed() {
+		return numberParsed;
+	}
+
+	public DirectoryIndexer getDirectoryIndexer() {
+		return directoryIndexer;
+	}
+}
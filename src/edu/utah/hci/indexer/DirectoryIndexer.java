@@ -0,0 +1,633 @@
+package edu.utah.hci.indexer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+
+import edu.utah.hci.apps.GQueryIndexer;
+import edu.utah.hci.misc.Gzipper;
+import edu.utah.hci.misc.Util;
+import edu.utah.hci.query.BinaryQueryIndex;
+import edu.utah.hci.tabix.ParsedTabixIndex;
+
+/**Builds or updates the GQuery index for one directory of tabix indexed data files. The chromosomes are loaded,
+ * swept, and written by ChromIndexers running on the GQueryIndexer's shared thread pools, so many directories
+ * can be indexed at once. Messages are collected and printed together when the directory completes.
+ * 
+ * The new index is built in a staging dir, each completed chromosome is recorded in its checkpoint file, and when all
+ * are done the staging dir is renamed to the index dir. The prior index stays in place until then so a killed run
+ * leaves it untouched, and the next run resumes from the checkpoint provided the data files haven't changed.*/
+public class DirectoryIndexer implements Runnable {
+
+	public static final String CHECKPOINT_FILE_NAME = "checkpoint.txt";
+
+	//fields
+	private GQueryIndexer gQueryIndexer;
+	private File dir;
+	private File indexDir;
+	private File stagingDir;
+	private File checkpointFile;
+	private PrintWriter checkpoint = null;
+	private HashSet<String> completedChroms = new HashSet<String>();
+	private boolean verbose;
+	private StringBuilder log = new StringBuilder();
+
+	private File[] dataFilesToParse= null;
+	private HashMap<String, HashMap<File, Long>> chrFileBytes = new HashMap<String, HashMap<File, Long>>();
+	private HashMap<File, Integer> fileId = new HashMap<File, Integer>();
+	private int numberFileIds = 0;
+	private int toTruncatePoint = -1;
+	private HashMap<String, FileInfo> priorFileInfo = null;
+
+	//incremental update of a prior index
+	private boolean update = false;
+	private HashSet<File> filesToUpdate = new HashSet<File>();
+	private HashSet<Integer> removedIds = new HashSet<Integer>();
+	private boolean[] retainedIds = null;
+
+	public DirectoryIndexer (GQueryIndexer gQueryIndexer, File dir) {
+		this.gQueryIndexer = gQueryIndexer;
+		this.dir = dir;
+		indexDir = new File(dir, GQueryIndexer.INDEX_DIR_NAME);
+		stagingDir = new File(dir, GQueryIndexer.STAGING_DIR_NAME);
+		checkpointFile = new File(stagingDir, CHECKPOINT_FILE_NAME);
+		verbose = gQueryIndexer.isVerbose();
+		toTruncatePoint = gQueryIndexer.getToTruncatePoint();
+	}
+
+	public void run() {
+		pl("\tIndexing "+dir);
+
+		//finish or roll back a publish that was interrupted
+		recoverPublish();
+
+		//load the dataFilesToParse
+		parseDataSources();
+
+		//look for and if present load the prior index HashMaps
+		loadPrior();
+		boolean buildIndex = true;
+
+		if (priorFileInfo != null) buildIndex = contrastPriorWithCurrent();
+		else createFileIdHash();
+
+		if (buildIndex) {
+			//new staging dir or resume from the last checkpoint
+			openStaging();
+
+			createChrFiles();
+
+			createFileIdArray();
+			if (update) createRetainedIdArray();
+
+			//index the chromosomes at once
+			indexChroms();
+
+			saveFileIds();
+			
+			//swap in the new index
+			publish();
+		}
+		else {
+			//left over from an interrupted run on different data files?
+			if (stagingDir.exists()) Util.deleteDirectory(stagingDir);
+			pl("\t\t\tUp to date");
+		}
+
+		Util.p(log.toString());
+	}
+
+	/**Submits a ChromIndexer for each chromosome with work to do, or one DirectoryStreamer for all of them, and waits for them to complete.*/
+	private void indexChroms() {
+		TreeMap<String, Integer> chrLengths = gQueryIndexer.getChrLengths();
+		ArrayList<ChromIndexer> chromIndexers = new ArrayList<ChromIndexer>();
+		TreeMap<String, String> chromStats = new TreeMap<String, String>();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		try {
+			for (String chr: chrLengths.keySet()) {
+				HashMap<File, Long> chrFiles = chrFileBytes.get(chr);
+				File priorIndexFile = new File(indexDir, chr+".qi.bed.gz");
+				File queryIndexFile = new File(stagingDir, chr+".qi.bed.gz");
+
+				//any work to do? chroms without data are left out of the staging dir
+				if (chrFiles.size() == 0 ) continue;
+				
+				//completed before the last run was interrupted?
+				if (completedChroms.contains(chr)) {
+					chromStats.put(chr, chr+"\tCheckpointed");
+					continue;
+				}
+
+				//updating? then just parse the new and modified files and merge in the prior intervals, otherwise parse them all
+				ArrayList<File> filesToParse = new ArrayList<File>();
+				long compressedBytes = 0;
+				boolean mergePrior = update && priorIndexFile.exists();
+				for (File f: chrFiles.keySet()) {
+					if (mergePrior == false || filesToUpdate.contains(f)) {
+						filesToParse.add(f);
+						compressedBytes += chrFiles.get(f);
+					}
+				}
+				if (mergePrior) {
+					//anything changed for this chr? if not just carry over the prior index
+					if (filesToParse.size() == 0 && priorContainsRemovedIds(priorIndexFile) == false) {
+						stagePriorChrom(chr);
+						chromStats.put(chr, chr+"\tUp to date");
+						continue;
+					}
+					compressedBytes += priorIndexFile.length();
+				}
+				else priorIndexFile = null;
+
+				//the whole chromosome is loaded at once, the sweep line index only holds the parsed regions
+				ChromIndexer ci = new ChromIndexer(gQueryIndexer, this, chr, chrLengths.get(chr)+2, filesToParse, priorIndexFile, queryIndexFile, compressedBytes);
+				chromIndexers.add(ci);
+				if (gQueryIndexer.isStream() == false) futures.add(gQueryIndexer.getChromPool().submit(ci));
+			}
+			
+			//read each file once for all of the chroms?
+			if (gQueryIndexer.isStream() && chromIndexers.size() != 0) futures.add(gQueryIndexer.getChromPool().submit(new DirectoryStreamer(gQueryIndexer, chromIndexers)));
+
+			//wait for all to complete
+			for (Future<?> f: futures) f.get();
+
+		} catch (Exception e){
+			e.printStackTrace();
+			Util.printErrAndExit("\nFATAL error with indexing the chromosomes in "+dir+", aborting.");
+		}
+
+		//check and print stats
+		for (ChromIndexer ci: chromIndexers) {
+			if (ci.isFailed()) Util.printErrAndExit("\nFATAL error with indexing "+ci+", aborting.");
+			chromStats.put(ci.getChrom(), ci.getStats());
+			gQueryIndexer.addRecordsProcessed(ci.getNumberParsed());
+		}
+		for (String stats: chromStats.values()) pl("\t\t\t"+stats);
+	}
+
+	/**Opens the checkpoint file in the staging dir. If the staging dir is from an interrupted run with the same plan, the data files,
+	 * their ids, the chrom lengths, and the prior index, the chroms it completed are kept, otherwise it's replaced.*/
+	private void openStaging() {
+		try {
+			ArrayList<String> plan = fetchPlan();
+			completedChroms.clear();
+			if (checkpointFile.exists()) {
+				ArrayList<String> priorPlan = new ArrayList<String>();
+				HashSet<String> priorCompleted = new HashSet<String>();
+				BufferedReader in = Util.fetchBufferedReader(checkpointFile);
+				String line;
+				boolean torn = false;
+				boolean corrupt = false;
+				while ((line = in.readLine()) != null) {
+					//only the last line can be partially written, by a kill while checkpointing
+					if (torn) corrupt = true;
+					//done chr ok, the ok guards against a partially written last line
+					String[] fields = Util.TAB.split(line);
+					if (fields.length == 3 && fields[0].equals("done") && fields[2].equals("ok")) priorCompleted.add(fields[1]);
+					else if (priorPlan.size() < plan.size()) priorPlan.add(line);
+					else torn = true;
+				}
+				in.close();
+				if (corrupt == false && priorPlan.equals(plan)) {
+					for (String chr: priorCompleted) {
+						if (new File(stagingDir, chr+".qi.bed.gz.tbi").exists()) completedChroms.add(chr);
+					}
+				}
+			}
+			if (checkpointFile.exists() && completedChroms.size() != 0) {
+				pl("\t\tResuming from the checkpoint, "+completedChroms.size()+" chromosome(s) already indexed");
+				//rewritten without any torn last line so new done lines aren't appended onto it
+				File tmp = new File(stagingDir, CHECKPOINT_FILE_NAME+".tmp");
+				PrintWriter out = new PrintWriter(new FileWriter(tmp));
+				for (String p: plan) out.println(p);
+				for (String chr: new TreeSet<String>(completedChroms)) out.println("done\t"+chr+"\tok");
+				out.close();
+				if (out.checkError()) throw new IOException("Failed to write the checkpoint file "+tmp);
+				Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				checkpoint = new PrintWriter(new FileWriter(checkpointFile, true));
+			}
+			else {
+				if (stagingDir.exists()) Util.deleteDirectory(stagingDir);
+				stagingDir.mkdir();
+				checkpoint = new PrintWriter(new FileWriter(checkpointFile));
+				for (String p: plan) checkpoint.println(p);
+				checkpoint.flush();
+			}
+			if (checkpoint.checkError()) throw new IOException("Failed to write the checkpoint file "+checkpointFile);
+		} catch (IOException e){
+			e.printStackTrace();
+			Util.printErrAndExit("\nERROR: creating the staging dir for "+dir+", aborting.");
+		}
+	}
+	
+	/**Returns the lines describing this build, a resumed build must have the same.*/
+	private ArrayList<String> fetchPlan() {
+		ArrayList<String> plan = new ArrayList<String>();
+		plan.add("#GQueryIndexCheckpoint\t1");
+		File priorInfo = new File(indexDir, "fileInfo.txt.gz");
+		plan.add("prior\t"+(update ? priorInfo.length()+"\t"+priorInfo.lastModified() : "none"));
+		TreeMap<String, Integer> chrLengths = gQueryIndexer.getChrLengths();
+		for (String chr: chrLengths.keySet()) plan.add("chrom\t"+chr+"\t"+chrLengths.get(chr));
+		TreeMap<Integer, File> idFile = new TreeMap<Integer, File>();
+		for (File f: fileId.keySet()) idFile.put(fileId.get(f), f);
+		for (Integer id: idFile.keySet()) {
+			File f = idFile.get(id);
+			plan.add("file\t"+id+"\t"+f.length()+"\t"+f.lastModified()+"\t"+f.getPath().substring(toTruncatePoint));
+		}
+		return plan;
+	}
+	
+	/**Records a chrom whose chrXX.qi.bed.gz, tbi, and qi.bin are complete in the staging dir. Thread safe.*/
+	synchronized void checkpoint(String chr) throws IOException {
+		checkpoint.println("done\t"+chr+"\tok");
+		checkpoint.flush();
+		if (checkpoint.checkError()) throw new IOException("Failed to write the checkpoint file "+checkpointFile);
+	}
+	
+	/**Links or copies the prior index files for a chrom into the staging dir.*/
+	private void stagePriorChrom(String chr) throws IOException {
+		String[] names = {chr+".qi.bed.gz", chr+".qi.bed.gz.tbi", chr+BinaryQueryIndex.EXTENSION};
+		for (String name: names) {
+			File prior = new File(indexDir, name);
+			if (prior.exists() == false) continue;
+			Path staged = new File(stagingDir, name).toPath();
+			Files.deleteIfExists(staged);
+			try {
+				Files.createLink(staged, prior.toPath());
+			} catch (IOException | UnsupportedOperationException e) {
+				Files.copy(prior.toPath(), staged);
+			}
+		}
+		checkpoint(chr);
+	}
+	
+	/**Replaces the index dir with the staging dir. The renames are atomic so the index dir is either the prior or the new,
+	 * never partial. If killed between them, recoverPublish() finishes it.*/
+	private void publish() {
+		try {
+			checkpoint.close();
+			checkpoint = null;
+			File priorDir = new File(dir, GQueryIndexer.PRIOR_DIR_NAME);
+			if (priorDir.exists()) Util.deleteDirectory(priorDir);
+			if (indexDir.exists()) Files.move(indexDir.toPath(), priorDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			Files.move(stagingDir.toPath(), indexDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			new File(indexDir, CHECKPOINT_FILE_NAME).delete();
+			if (priorDir.exists()) Util.deleteDirectory(priorDir);
+		} catch (IOException e){
+			e.printStackTrace();
+			Util.printErrAndExit("\nERROR: failed to move the staged index "+stagingDir+" to "+indexDir+", aborting.");
+		}
+	}
+	
+	/**Cleans up after a publish that was interrupted. If the new index was renamed in, the prior is deleted, otherwise it's restored.*/
+	private void recoverPublish() {
+		File priorDir = new File(dir, GQueryIndexer.PRIOR_DIR_NAME);
+		try {
+			if (priorDir.exists()) {
+				if (indexDir.exists()) Util.deleteDirectory(priorDir);
+				else {
+					Files.move(priorDir.toPath(), indexDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					pl("\t\tRestored the prior index from an interrupted run");
+				}
+			}
+			new File(indexDir, CHECKPOINT_FILE_NAME).delete();
+		} catch (IOException e){
+			e.printStackTrace();
+			Util.printErrAndExit("\nERROR: failed to restore the prior index "+priorDir+", aborting.");
+		}
+	}
+
+	private void createFileIdArray() {
+		int maxValue = 0;
+		for (int i: fileId.values()) if (i>maxValue) maxValue = i;
+		numberFileIds = maxValue+1;
+	}
+
+	private void createFileIdHash() {
+		fileId.clear();
+		for (int i=0; i< dataFilesToParse.length; i++) {
+			Integer id = new Integer(i);
+			fileId.put(dataFilesToParse[i], id);
+		}
+	}
+
+	/**Looks for new, changed, and deleted data files relative to the prior index. Unchanged and changed files keep their prior file id,
+	 * new files take the id of a deleted file or the next available. Returns false if there is nothing to do.*/
+	private boolean contrastPriorWithCurrent() {
+		fileId.clear();
+		filesToUpdate.clear();
+		removedIds.clear();
+		int numOldDataSources = 0;
+		int numNewDataSources = 0;
+		int numNewDataSourcesDiffSize = 0;
+		int numOldDataSourcesMissingInNew = 0;
+		ArrayList<File> newDataSources = new ArrayList<File>();
+		HashSet<Integer> usedIds = new HashSet<Integer>();
+
+		//walk working files to index
+		HashSet<String> currentTrimmedDataSourceNames = new HashSet<String>();
+		for (int i=0; i< dataFilesToParse.length; i++) {
+
+			//was it already parsed?
+			String trimmedName = dataFilesToParse[i].toString().substring(toTruncatePoint);
+			currentTrimmedDataSourceNames.add(trimmedName);
+			FileInfo fi =  priorFileInfo.get(trimmedName);
+
+			if (fi == null) {
+				numNewDataSources++;
+				newDataSources.add(dataFilesToParse[i]);
+			}
+			else {
+				//keep the prior id
+				fileId.put(dataFilesToParse[i], fi.id);
+				usedIds.add(fi.id);
+
+				//same size and mod date?
+				if (dataFilesToParse[i].length() == fi.size && dataFilesToParse[i].lastModified() == fi.lastModified) numOldDataSources++;
+				else {
+					numNewDataSourcesDiffSize++;
+					filesToUpdate.add(dataFilesToParse[i]);
+					removedIds.add(fi.id);
+				}
+			}
+		}
+
+		//walk old Index and see which are missing in new and should be deleted
+		for (String oldTN: priorFileInfo.keySet()) {
+			if (currentTrimmedDataSourceNames.contains(oldTN) == false) {
+				numOldDataSourcesMissingInNew++;
+				removedIds.add(priorFileInfo.get(oldTN).id);
+			}
+		}
+
+		//assign ids to the new data sources, reuse those from deleted files
+		int nextId = 0;
+		for (File f: newDataSources) {
+			while (usedIds.contains(nextId)) nextId++;
+			fileId.put(f, nextId);
+			usedIds.add(nextId);
+			filesToUpdate.add(f);
+		}
+
+		if (verbose) {
+			pl("\t\t"+numOldDataSources +" Unchanged, "+numNewDataSources+" new, "+numNewDataSourcesDiffSize+" modified, and "+
+					numOldDataSourcesMissingInNew+" deleted data sources");
+		}
+
+		//check if any work to do
+		if (numNewDataSources==0 && numNewDataSourcesDiffSize==0 && numOldDataSourcesMissingInNew==0) return false;
+
+		//update or rebuild?
+		if (gQueryIndexer.isRebuildAll()) createFileIdHash();
+		else update = true;
+		return true;
+	}
+
+	/**Flags the file ids in the prior index to keep when updating.*/
+	private void createRetainedIdArray() {
+		retainedIds = new boolean[numberFileIds];
+		for (Integer id: fileId.values()) {
+			if (removedIds.contains(id) == false) retainedIds[id] = true;
+		}
+		//watch out for new files given the id of a deleted file
+		for (Integer id: removedIds) {
+			if (id < retainedIds.length) retainedIds[id] = false;
+		}
+	}
+
+	private void loadPrior() {
+		try {
+			priorFileInfo = null;
+			if (indexDir.exists() == false) return;
+
+			//look for the fileInfo.txt
+			File info = new File(indexDir, "fileInfo.txt.gz");
+			if (info.exists() == false) return;
+			loadFileInfo(info);
+
+			File[] priorChromIndexFiles = Util.extractFiles(indexDir, ".bed.gz");
+			if (priorChromIndexFiles == null || priorChromIndexFiles.length == 0) throw new IOException("\nFailed to find your chrXXX.bed.gz index files in this index directory "+indexDir+" Delete index dir and restart.");
+
+		} catch (Exception e){
+			e.printStackTrace();
+			Util.printErrAndExit("\nERROR: opening prior index objects from "+dir);
+		}
+
+	}
+
+	private void loadFileInfo(File info) throws IOException {
+		priorFileInfo = new HashMap<String, FileInfo>();
+		BufferedReader in = Util.fetchBufferedReader(info);
+		//skip first header line
+		in.readLine();
+		String line;
+		String[] fields;
+		while ((line = in.readLine()) != null) {
+			//Id0 Size1 LastMod2 Name3
+			fields = Util.TAB.split(line);
+			priorFileInfo.put(fields[3], new FileInfo(fields));
+		}
+		in.close();
+	}
+
+	private class FileInfo{
+		int id;
+		long size;
+		long lastModified;
+
+		private FileInfo (String[] fields) {
+			//Id0 Size1 LastMod2 Name3
+			id = Integer.parseInt(fields[0]);
+			size = Long.parseLong(fields[1]);
+			lastModified = Long.parseLong(fields[2]);
+		}
+	}
+
+	/**Adds a region for each retained file id in each prior interval to the index. Returns the number of regions added.*/
+	long loadPriorIntervals(File priorIndex, SweepLineIndexBuilder index) throws IOException {
+		long numAdded = 0;
+		BufferedReader in = Util.fetchBufferedReader(priorIndex);
+		String line;
+		String[] fields;
+		while ((line = in.readLine()) != null) {
+			//chr0 start1 stop2 ids3
+			fields = Util.TAB.split(line);
+			int start = Integer.parseInt(fields[1]);
+			int stop = Integer.parseInt(fields[2]);
+			for (String id: Util.COMMA.split(fields[3])) {
+				int fileId = Integer.parseInt(id);
+				if (fileId < retainedIds.length && retainedIds[fileId]) {
+					index.addRegion(start, stop, fileId);
+					numAdded++;
+				}
+			}
+		}
+		in.close();
+		return numAdded;
+	}
+
+	/**Checks if the prior index references any of the deleted or modified file ids.*/
+	private boolean priorContainsRemovedIds(File priorIndex) throws IOException {
+		if (removedIds.size() == 0) return false;
+		BufferedReader in = Util.fetchBufferedReader(priorIndex);
+		String line;
+		String[] fields;
+		boolean found = false;
+		while (found == false && (line = in.readLine()) != null) {
+			fields = Util.TAB.split(line);
+			for (String id: Util.COMMA.split(fields[3])) {
+				if (removedIds.contains(Integer.parseInt(id))) {
+					found = true;
+					break;
+				}
+			}
+		}
+		in.close();
+		return found;
+	}
+
+	/**Finds the files with records on each chr and the compressed bytes they span, used to estimate the memory needed to index it.*/
+	private void createChrFiles() {
+		//load hash to hold files with a particular chr
+		TreeMap<String, Integer> chrLengths = gQueryIndexer.getChrLengths();
+		chrFileBytes.clear();
+		for (String chr: chrLengths.keySet()) chrFileBytes.put(chr, new HashMap<File, Long>());
+
+		try {
+			//for each file
+			for (File f: dataFilesToParse){
+				//fetch the decoded index
+				ParsedTabixIndex ti = gQueryIndexer.getTabixIndexCache().fetch(f);
+				//for each chromosome
+				for (String chr: chrLengths.keySet()){
+					String name = null;
+					if (ti.fetchTid(chr) != -1) name = chr;
+					else if (ti.fetchTid("chr"+chr) != -1) name = "chr"+chr;
+					//the number of compressed bytes in the data file that hold the records for the chr
+					if (name != null) chrFileBytes.get(chr).put(f, ti.fetchCompressedBytes(name, 0, chrLengths.get(chr)+2));
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			Util.printErrAndExit("\nERROR: problem with testing indexes for particular chroms in "+dir+"\n");
+		}
+	}
+
+	private void saveFileIds(){
+		try {
+
+			//find all the parsed files and their id
+			TreeMap<Integer, File> parsedFiles = new TreeMap<Integer, File>();
+			for (HashMap<File, Long> al: chrFileBytes.values()) {
+				//for each file
+				for (File f: al.keySet()) {
+					Integer id = fileId.get(f);
+					if (id == null) throw new Exception("\nFailed to find an id for "+f);
+					if (parsedFiles.containsKey(id) == false) parsedFiles.put(id, f);
+				}
+			}
+
+			//save with truncated paths
+			Gzipper out = new Gzipper(new File (stagingDir, "fileInfo.txt.gz"));
+			out.println("#Id\tSize\tLastMod\tRelPath");
+
+			for (Integer id: parsedFiles.keySet()){
+				File f = parsedFiles.get(id);
+
+				//trim the name
+				String trimmedName = f.getPath().substring(toTruncatePoint);
+
+				//save id size lastModified and trimmed name
+				out.println(id+"\t"+f.length()+"\t"+f.lastModified()+"\t"+trimmedName);
+			}
+			out.close();
+
+		} catch (Exception e){
+			e.printStackTrace();
+			Util.printErrAndExit("\nERROR: saving file objects in "+stagingDir+", aborting\n");
+		}
+	}
+
+	private void parseDataSources(){
+			String[] fileExtToIndex = GQueryIndexer.FILE_EXT_TO_INDEX;
+			ArrayList<File> goodDataSources = new ArrayList<File>();
+			ArrayList<File> tbiMissingDataSources = new ArrayList<File>();
+			ArrayList<File> unrecognizedDataSource = new ArrayList<File>();
+
+			//find .tbi files and check
+			File[] list = dir.listFiles();
+			for (File f: list){
+				if (f.getName().endsWith(".gz.tbi") == false) continue;
+				String path = f.getPath();
+
+				//look for data file
+				File df = new File(path.substring(0, path.length()-4));
+				if (df.exists() == false){
+					tbiMissingDataSources.add(f);
+					continue;
+				}
+
+				//is it a known type
+				boolean recognized = false;
+				for (String knownExt: fileExtToIndex){
+					if (df.getName().toLowerCase().endsWith(knownExt)){
+						recognized = true;
+						break;
+					}
+				}
+				if (recognized) goodDataSources.add(df);
+				else unrecognizedDataSource.add(df);
+			}
+
+			int numFiles = goodDataSources.size() + unrecognizedDataSource.size();
+
+			//print messages
+			if (numFiles == 0) Util.printErrAndExit("\nERROR: failed to find any data sources for tabix indexed files in "+dir+" Aborting.");
+			pl("\t\t"+goodDataSources.size()+" Data sources with known formats ("+ Util.stringArrayToString(fileExtToIndex, ", ")+")");
+			if (tbiMissingDataSources.size() !=0){
+				pl("\t\t"+tbiMissingDataSources.size()+" WARNING: The data source file(s) for the following tbi index(s) could not be found, skipping:");
+				for (File f: tbiMissingDataSources) pl("\t\t\t"+f.getPath());
+			}
+			if (unrecognizedDataSource.size() !=0){
+				pl("\t\t"+unrecognizedDataSource.size()+" WARNING: Data sources with unknown format(s). The format of the "
+						+ "following files will be set using info from the tabix index and may be incorrect. Contact "+GQueryIndexer.EMAIL+" to add.");
+				for (File f: unrecognizedDataSource) pl("\t\t\t"+f.getPath());
+			}
+
+			//make final set
+			goodDataSources.addAll(unrecognizedDataSource);
+			dataFilesToParse = new File[goodDataSources.size()];
+			goodDataSources.toArray(dataFilesToParse);
+			Arrays.sort(dataFilesToParse);
+			gQueryIndexer.addFilesIndexed(dataFilesToParse.length);
+	}
+
+	private void pl(String s) {
+		log.append(s);
+		log.append("\n");
+	}
+
+	public HashMap<File, Integer> getFileId() {
+		return fileId;
+	}
+
+	public int getNumberFileIds() {
+		return numberFileIds;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+}
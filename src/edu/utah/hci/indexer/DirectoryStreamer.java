@@ -0,0 +1,77 @@
+package edu.utah.hci.indexer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+
+import edu.utah.hci.apps.GQueryIndexer;
+
+/**Streaming alternative to running each ChromIndexer on its own. Each data file in the directory is read once, start to finish,
+ * and its records routed to the ChromIndexers of all the chromosomes being indexed. This avoids a tabix query and index load for
+ * every chromosome of every file but needs the memory for all of the chromosomes at once.*/
+public class DirectoryStreamer implements Runnable {
+
+	//fields
+	private GQueryIndexer gQueryIndexer;
+	private ArrayList<ChromIndexer> chromIndexers;
+
+	public DirectoryStreamer (GQueryIndexer gQueryIndexer, ArrayList<ChromIndexer> chromIndexers) {
+		this.gQueryIndexer = gQueryIndexer;
+		this.chromIndexers = chromIndexers;
+	}
+
+	public void run() {
+		int acquired = 0;
+		try {
+			long memoryMB = 0;
+			HashMap<String, ChromIndexer> chromNameIndexer = new HashMap<String, ChromIndexer>();
+			TreeSet<File> filesToParse = new TreeSet<File>();
+			for (ChromIndexer ci: chromIndexers) {
+				memoryMB += ci.getMemoryMB();
+				chromNameIndexer.put(ci.getChrom(), ci);
+				filesToParse.addAll(ci.getFilesToParse());
+			}
+			acquired = gQueryIndexer.acquireMemory((int)Math.min(Integer.MAX_VALUE, memoryMB));
+			for (ChromIndexer ci: chromIndexers) ci.loadPrior();
+
+			//stream each data file once
+			ArrayList<QueryIndexFileLoader> loaders = new ArrayList<QueryIndexFileLoader>();
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			for (File f: filesToParse) {
+				QueryIndexFileLoader loader = new QueryIndexFileLoader(gQueryIndexer, chromNameIndexer, f);
+				loaders.add(loader);
+				futures.add(gQueryIndexer.getWorkerPool().submit(loader));
+			}
+			for (Future<?> f: futures) f.get();
+			for (QueryIndexFileLoader l: loaders) {
+				if (l.isFailed()) throw new Exception("ERROR: File Loader issue! \n"+l);
+			}
+
+			//save the index for each chrom
+			ArrayList<QueryIndexWriter> writers = new ArrayList<QueryIndexWriter>();
+			futures.clear();
+			for (ChromIndexer ci: chromIndexers) {
+				QueryIndexWriter writer = ci.createWriter();
+				writers.add(writer);
+				futures.add(gQueryIndexer.getWorkerPool().submit(writer));
+			}
+			for (int i=0; i< futures.size(); i++) {
+				futures.get(i).get();
+				ChromIndexer ci = chromIndexers.get(i);
+				ci.clear();
+				if (writers.get(i).isFailed()) throw new Exception("ERROR: Index Writer issue! \n"+writers.get(i));
+				ci.getDirectoryIndexer().checkpoint(ci.getChrom());
+			}
+
+		} catch (Exception e) {
+			for (ChromIndexer ci: chromIndexers) ci.setFailed();
+			System.err.println("Error: streaming "+chromIndexers.get(0).getDirectoryIndexer().getDir());
+			e.printStackTrace();
+		} finally {
+			for (ChromIndexer ci: chromIndexers) ci.clear();
+			gQueryIndexer.releaseMemory(acquired);
+		}
+	}
+}
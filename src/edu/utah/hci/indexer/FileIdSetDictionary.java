@@ -0,0 +1,84 @@
+package edu.utah.hci.indexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import edu.utah.hci.misc.RoaringBitmap;
+
+/**Assigns an int id to each distinct set of file ids seen while sweeping a chromosome so the same set, which recurs many times,
+ * is only stored, joined for the bed, and encoded as a RoaringBitmap once. Not thread safe.*/
+public class FileIdSetDictionary {
+
+	//fields
+	private HashMap<IdSet, Integer> setIds = new HashMap<IdSet, Integer>();
+	private ArrayList<int[]> sets = new ArrayList<int[]>();
+	private ArrayList<String> joinedSets = new ArrayList<String>();
+	private IdSet probe = new IdSet();
+
+	/**Returns the set id for the first n sorted file ids, adding the set if new.*/
+	public int fetchSetId(int[] sortedIds, int n) {
+		probe.set(sortedIds, n);
+		Integer id = setIds.get(probe);
+		if (id != null) return id;
+		int[] ids = Arrays.copyOf(sortedIds, n);
+		id = sets.size();
+		sets.add(ids);
+		joinedSets.add(null);
+		IdSet key = new IdSet();
+		key.set(ids, n);
+		setIds.put(key, id);
+		return id;
+	}
+
+	/**Returns the file ids of the set comma delimited, as written in the chrXX.qi.bed.gz.*/
+	public String fetchJoinedIds(int setId) {
+		String joined = joinedSets.get(setId);
+		if (joined == null) {
+			int[] ids = sets.get(setId);
+			StringBuilder sb = new StringBuilder(Integer.toString(ids[0]));
+			for (int i=1; i< ids.length; i++) {
+				sb.append(",");
+				sb.append(ids[i]);
+			}
+			joined = sb.toString();
+			joinedSets.set(setId, joined);
+		}
+		return joined;
+	}
+
+	public RoaringBitmap fetchBitmap(int setId) {
+		int[] ids = sets.get(setId);
+		return RoaringBitmap.fromSorted(ids, ids.length);
+	}
+
+	public int getNumberSets() {
+		return sets.size();
+	}
+
+	/**Hash key over part of an int array, the probe instance is reused for lookups.*/
+	private static class IdSet {
+		private int[] ids;
+		private int n;
+		private int hash;
+
+		void set(int[] ids, int n) {
+			this.ids = ids;
+			this.n = n;
+			int h = 1;
+			for (int i=0; i< n; i++) h = 31 * h + ids[i];
+			hash = h;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			IdSet other = (IdSet)o;
+			if (other.n != n || other.hash != hash) return false;
+			for (int i=0; i< n; i++) if (ids[i] != other.ids[i]) return false;
+			return true;
+		}
+	}
+}
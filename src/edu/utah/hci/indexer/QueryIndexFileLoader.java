@@ -1,221 +1,175 @@
 package edu.utah.hci.indexer;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import edu.utah.hci.apps.GQueryIndexer;
-import edu.utah.hci.misc.Util;
-import htsjdk.tribble.readers.TabixReader;
-import htsjdk.tribble.readers.TabixReader.Iterator;
+import edu.utah.hci.tabix.CachedTabixReader;
+import edu.utah.hci.tabix.ParsedTabixIndex;
+import htsjdk.samtools.util.BlockCompressedInputStream;
 
+/**Parses the records of one chromosome in a data file and adds their regions to the ChromIndexer. Or in streaming mode, 
+ * reads the whole data file once and routes the records of each chromosome to its ChromIndexer.*/
 public class QueryIndexFileLoader implements Runnable {
 
 	//fields
 	private boolean failed = false;
 	private GQueryIndexer gQueryIndexer;
+	private ChromIndexer chromIndexer;
+	private HashMap<String, ChromIndexer> chromIndexers = null;
 	private String chrom;
-	private TabixReader reader = null;
+	private CachedTabixReader reader = null;
 	private File sourceFile = null;
 	private boolean verbose;
-	private ArrayList<IndexRegion> toAdd = new ArrayList<IndexRegion>();
-	private HashMap<File, Integer> fileId = null;
-	private static final int numToLoad = 10000;
-	private int start = 0;
-	private int stop = 0;
-	public static final Pattern END_POSITION = Pattern.compile(".*END=(\\d+).*", Pattern.CASE_INSENSITIVE);
-
-	public QueryIndexFileLoader (GQueryIndexer gQueryIndexer, String chrom, int start, int stop) throws IOException{
+	private SweepLineIndexBuilder regions = null;
+	private int chromLength = 0;
+	private RecordCoordinateParser parser;
+	
+	//per file
+	private boolean vcf;
+	private int[] startStopSubtract = null;
+	private int id;
+
+	/**Loads the records of one chromosome via a tabix query.*/
+	public QueryIndexFileLoader (GQueryIndexer gQueryIndexer, ChromIndexer chromIndexer, File sourceFile) {
+		this.gQueryIndexer = gQueryIndexer;
+		this.chromIndexer = chromIndexer;
+		this.sourceFile = sourceFile;
+		this.chrom = chromIndexer.getChrom();
+		this.chromLength = chromIndexer.getChromLength();
+		verbose = gQueryIndexer.isVerbose();
+		parser = new RecordCoordinateParser(verbose);
+	}
+	
+	/**Streams the whole file, the chromIndexers are keyed by chromosome name without a 'chr' prefix.*/
+	public QueryIndexFileLoader (GQueryIndexer gQueryIndexer, HashMap<String, ChromIndexer> chromIndexers, File sourceFile) {
 		this.gQueryIndexer = gQueryIndexer;
-		this.fileId = gQueryIndexer.getFileId();
-		this.chrom = chrom;
-		this.start = start;
-		this.stop = stop;
+		this.chromIndexers = chromIndexers;
+		this.sourceFile = sourceFile;
 		verbose = gQueryIndexer.isVerbose();
+		parser = new RecordCoordinateParser(verbose);
 	}
 
 	public void run() {	
 		try {
-			//get next file to parse
-			while ((sourceFile = gQueryIndexer.getFileToParse()) != null){ 
-				toAdd.clear();
-				//fetch a reader on slice, start must be > 0, end can be past chrom end
-				reader = new TabixReader(sourceFile.toString());
-				TabixReader.Iterator it = fetchTReader(chrom, start+1, stop);
-				if (it == null) {
-					reader.close();
-					continue;
+			if (chromIndexers != null) streamDataFile();
+			else {
+				//fetch a reader on the chrom, start must be > 0, end can be past chrom end
+				reader = new CachedTabixReader(sourceFile, gQueryIndexer.getTabixIndexCache().fetch(sourceFile));
+				CachedTabixReader.Iterator it = fetchTReader(chrom, 1, chromLength);
+				if (it != null) {
+					setFileInfo(chromIndexer);
+					String record = null;
+					while ((record = it.next()) != null) parseRecord(record);
+
+					//add last and clear
+					addRegions();
 				}
-
-				parseDataFile(it);
-				
-				//add last and clear
-				if (toAdd.size()!=0) gQueryIndexer.addRegions(toAdd);
-				reader.close();
 			}
 		} catch (Exception e) {
 			failed = true;
-			System.err.println("Error: loading "+chrom+":"+start+"-"+stop+" for "+sourceFile );
+			System.err.println("Error: loading "+this);
 			e.printStackTrace();
 		} finally {
 			if (reader != null) reader.close();
 		}
 	}
-
-	private void parseDataFile(Iterator it) throws NumberFormatException, IOException {
-		//is it a vcf?
-		boolean vcf = sourceFile.getName().toLowerCase().endsWith(".vcf.gz");
-		int[] startStopSubtract = null;
-		if (vcf == false) startStopSubtract = gQueryIndexer.getSSS(sourceFile);
-
-		Integer id = fileId.get(sourceFile);
-		String record = null;
-		while ((record = it.next()) != null){
-			//parse start and stop bp positions
-			int[] startStop;
-			if (vcf) startStop = parseStartStopBpCoorVcf(record, verbose);
-			else startStop = parseStartStopBpCoor(record, startStopSubtract, verbose);
-			if (startStop != null) {
-				//check against the chrom seg
-				if (startStop[0] < start) startStop[0] = start;
-				if (startStop[1] >= stop) startStop[1] = stop;
-				if ((startStop[1]-startStop[0]) > 0) {
-					toAdd.add(new IndexRegion(startStop[0]-start, startStop[1]-start, id));
-					if (toAdd.size() > numToLoad) {
-						gQueryIndexer.addRegions(toAdd);
-						toAdd.clear();
+	
+	/**Reads the data file start to finish with a bgzip reader, skipping the header and the records of chromosomes that aren't 
+	 * being indexed or don't need this file.*/
+	private void streamDataFile() throws IOException {
+		//use the tabix index to find the chrom column and header
+		ParsedTabixIndex ti = gQueryIndexer.getTabixIndexCache().fetch(sourceFile);
+		int chromColumn = ti.getSequenceColumn() - 1;
+		setFileInfo(chromIndexers.values().iterator().next());
+		
+		BufferedReader in = new BufferedReader(new InputStreamReader(new BlockCompressedInputStream(sourceFile), StandardCharsets.UTF_8));
+		try {
+			for (int i=0; i< ti.getNumberHeaderLines(); i++) in.readLine();
+			String record;
+			String recordChrom = null;
+			while ((record = in.readLine()) != null){
+				if (record.length() == 0 || record.charAt(0) == ti.getMetaCharacter()) continue;
+
+				//new chrom? records are sorted so switch collectors
+				String c = fetchColumn(record, chromColumn);
+				if (c.equals(recordChrom) == false) {
+					addRegions();
+					recordChrom = c;
+					if (c.startsWith("chr")) c = c.substring(3);
+					chromIndexer = chromIndexers.get(c);
+					if (chromIndexer != null && chromIndexer.isToParse(sourceFile) == false) chromIndexer = null;
+					if (chromIndexer != null) {
+						chrom = chromIndexer.getChrom();
+						chromLength = chromIndexer.getChromLength();
 					}
 				}
+				if (chromIndexer != null) parseRecord(record);
 			}
+			addRegions();
+		} finally {
+			in.close();
 		}
 	}
-
-	private TabixReader.Iterator fetchTReader(String chrom, int start, int stop) throws Exception{
-		if (reader.getChromosomes().contains(chrom)) return reader.query(chrom, start, stop);
-		String chrChrom = "chr"+chrom;
-		if (reader.getChromosomes().contains(chrChrom)) return reader.query(chrChrom, start, stop);
-		return null;
-	}
-
-	private static int[] parseStartStopBpCoorVcf(String vcfRecord, boolean verbose) {
-		int[] startStop = null;
-		try {
-			String[] t = Util.TAB.split(vcfRecord);
-			startStop = fetchEffectedBps(t, verbose);
-		} catch (NumberFormatException e){}
-		return startStop;
-	}
-
-	private static int[] parseStartStopBpCoor(String record, int[] startStopSub, boolean verbose) throws NumberFormatException {
-		int[] startStop = null;
-		try {
-			String[] t = Util.TAB.split(record);
-			int start = Integer.parseInt(t[startStopSub[0]]);
-			start = start- startStopSub[2];
-			int stop = Integer.parseInt(t[startStopSub[1]]);
-			startStop = new int[]{start, stop};
-		} catch (NumberFormatException e){
-			if (verbose) System.err.println("\tWARNING: failed to parse start stop, skipping -> "+record);
+	
+	/**Returns the zero based column, without splitting the whole line.*/
+	private static String fetchColumn(String record, int column) {
+		int start = 0;
+		for (int i=0; i< column; i++) {
+			start = record.indexOf('\t', start) + 1;
+			if (start == 0) throw new IllegalArgumentException("Failed to find column "+(column+1)+" in "+record);
 		}
-		return startStop;
+		int end = record.indexOf('\t', start);
+		if (end == -1) end = record.length();
+		return record.substring(start, end);
 	}
 
-	/**Returns the interbase start stop region of effected bps for simple SNV and INDELs. 
-	 * SNV=iPos,iPos+LenRef; INS=iPos,iPos+lenRef+1; DEL=iPos+1,iPos+lenRef; iPos=pos-1.
-	 * For multi alts, returns min begin and max end of all combinations.
-	 * For alts with < indicating a CNV or trans, attempts to parse the END=number from the INFO column. */
-	public static int[] fetchEffectedBps(String[] vcf, boolean verbose) throws NumberFormatException{
-
-		/*NOTE, any changes here, please update the web app's QueryRequest too*/
-
-		//CHROM	POS	ID	REF	ALT	
-		//  0    1   2   3   4  
-		//put into interbase coordinates
-		int iPos = Integer.parseInt(vcf[1]) - 1;
-		String ref= vcf[3];
-		String alt= vcf[4];
-
-		//any commas/ multi alts?
-		if (alt.contains(",") == false) return fetchEffectedBpsSingleAlt(iPos, ref, alt, vcf,true, verbose);
-
-		//OK commas present, thus multi alts, these need to be tested for max effect
-		//There is complexity with multi alts, best to deconvolute and left justify! 
-		String[] alts = Util.COMMA.split(alt);
-		int begin = Integer.MAX_VALUE;
-		int end = -1;		
-		for (int i=0; i< alts.length; i++){
-			int[] ss = fetchEffectedBpsSingleAlt(iPos, ref, alts[i], vcf, false, verbose);
-			//skip it?
-			if (ss == null) continue;
-			if(ss[0] < begin) begin = ss[0];
-			if(ss[1]> end) end = ss[1];
-		}
-
-		if (begin == Integer.MAX_VALUE) return null;
-
-		return new int[]{begin, end};
+	private void setFileInfo(ChromIndexer ci) {
+		//is it a vcf?
+		vcf = sourceFile.getName().toLowerCase().endsWith(".vcf.gz");
+		if (vcf == false) startStopSubtract = gQueryIndexer.getSSS(sourceFile);
+		id = ci.getDirectoryIndexer().getFileId().get(sourceFile);
 	}
 
-	public static int[] fetchEffectedBpsSingleAlt(int iPos, String ref, String alt, String[] vcf, boolean singleAlt, boolean verbose) throws NumberFormatException{
-
-		/*NOTE, any changes here, please update the web app's QueryRequest too*/
-
-		int begin = -1;
-		int end = -1;
-		int lenRef = ref.length();
-		int lenAlt = alt.length();
-
-		//watch out for < in the alt indicative of a CNV, structural var, or gvcf block
-		if (alt.contains("<")){
-			//CHROM	POS	ID	REF	ALT QUAL FILTER INFO	
-			//  0    1   2   3   4   5      6     7
-			Matcher mat = END_POSITION.matcher(vcf[7]);
-			if (mat.matches()) end = Integer.parseInt(mat.group(1));
-			else {
-				if (verbose && singleAlt) System.err.println("\tWARNING: found a < containing alt, yet failed to parse END=number position, skipping if this is the only alt -> "+Util.stringArrayToString(vcf, "\t"));
-				return null;
+	private void parseRecord(String record) {
+		//parse start and stop bp positions
+		boolean parsed;
+		if (vcf) parsed = parser.parseVcf(record);
+		else parsed = parser.parse(record, startStopSubtract);
+		if (parsed) {
+			//check against the chrom
+			int start = parser.getStart();
+			int stop = parser.getStop();
+			if (start < 0) start = 0;
+			if (stop >= chromLength) stop = chromLength;
+			if ((stop-start) > 0) {
+				if (regions == null) regions = new SweepLineIndexBuilder();
+				regions.addRegion(start, stop, id);
 			}
-			begin = iPos;
-		}
-
-		//single or multi adjacent snp? return just the changed bps,  GC->AT or G->A or G->.
-		else if (lenRef == lenAlt) {
-			begin = iPos;
-			end = iPos+ lenRef;
-		}
-		//ins? return the bases on either side of the insertion GC->GATTA or G->ATTA
-		else if (lenAlt > lenRef) {
-			begin = iPos;
-			end = iPos+ lenRef +1;
-			//C->TTAAT
-			if (ref.charAt(0) != alt.charAt(0)) {
-				begin--;
-				//if (verbose) System.err.println("\tWARNING: Odd INS vcf record, the first base in the ref and alt should be the same, -> "+Util.stringArrayToString(vcf, "\t")+ " effected bps "+begin+" "+end);
-			}
-
-		}
-		//del? return the uneffected bp and those that are deleted to match tabix's behaviour AT->A, ATTCG->ACC
-		else if (lenRef > lenAlt) {
-			begin = iPos;
-			end = iPos + lenRef;
-			//AT->C
-			if (ref.charAt(0) != alt.charAt(0)) {
-				begin--;
-				//if (verbose) System.err.println("\tWARNING: Odd DEL vcf record, the first base in the ref and alt should be the same -> "+Util.stringArrayToString(vcf, "\t")+ " effected bps "+begin+" "+end);
-			}
-		}
-		//odd, shouldn't hit this
-		else {
-			if (verbose) System.err.println("ERROR: Contact admin! Odd vcf record, can't parse effected bps for -> "+Util.stringArrayToString(vcf, "\t"));
-			return null;
 		}
+	}
+	
+	/**Hands the regions for the current chrom to its ChromIndexer, they're collected without locking till then.*/
+	private void addRegions() {
+		if (regions != null && regions.getNumberRegions() != 0) chromIndexer.addRegions(regions);
+		regions = null;
+	}
 
-		return new int[]{begin, end};
+	private CachedTabixReader.Iterator fetchTReader(String chrom, int start, int stop) throws Exception{
+		if (reader.getChromosomes().contains(chrom)) return reader.query(chrom, start, stop);
+		String chrChrom = "chr"+chrom;
+		if (reader.getChromosomes().contains(chrChrom)) return reader.query(chrChrom, start, stop);
+		return null;
 	}
 
+	public String toString() {
+		if (chromIndexers != null) return "all chromosomes for "+sourceFile;
+		return chrom+":0-"+chromLength+" for "+sourceFile;
+	}
 
 	public boolean isFailed() {
 		return failed;
@@ -0,0 +1,111 @@
+package edu.utah.hci.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import edu.utah.hci.query.BinaryQueryIndex;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+
+/**Sweeps the regions loaded for a chromosome and writes the intervals straight to a bgzip compressed chrXX.qi.bed.gz file,
+ * building its tabix index as it goes. The same intervals are then saved in the binary chrXX.qi.bin used by the query side.*/
+public class QueryIndexWriter implements Runnable {
+
+	/**Same as tabix -0 --sequence 1 --begin 2 --end 3, -p bed doesn't work with java tabix.*/
+	public static final TabixFormat QUERY_INDEX_FORMAT = new TabixFormat(TabixFormat.ZERO_BASED | TabixFormat.GENERIC_FLAGS, 1, 2, 3, '#', 0);
+
+	//fields
+	private boolean failed = false;
+	private SweepLineIndexBuilder index;
+	private String chrom;
+	private int numberFileIds;
+	private File queryIndexFile;
+	private long numberIntervals = 0;
+
+	//working io
+	private BlockCompressedOutputStream out = null;
+	private TabixIndexCreator indexCreator = null;
+	private StringBuilder sb = new StringBuilder();
+	private FileIdSetDictionary setDictionary = new FileIdSetDictionary();
+	private BinaryQueryIndexWriter binaryWriter = null;
+
+	public QueryIndexWriter (SweepLineIndexBuilder index, String chrom, int numberFileIds, File queryIndexFile) {
+		this.index = index;
+		this.chrom = chrom;
+		this.numberFileIds = numberFileIds;
+		this.queryIndexFile = queryIndexFile;
+	}
+
+	public void run() {
+		try {
+			out = new BlockCompressedOutputStream(queryIndexFile);
+			indexCreator = new TabixIndexCreator(QUERY_INDEX_FORMAT);
+			binaryWriter = new BinaryQueryIndexWriter(fetchBinaryFile(queryIndexFile), setDictionary);
+
+			numberIntervals = index.sweep(chrom, numberFileIds, this);
+
+			Index tabixIndex = indexCreator.finalizeIndex(out.getFilePointer());
+			out.close();
+			out = null;
+			tabixIndex.write(new File(queryIndexFile+".tbi").toPath());
+			//written last so it's never older than the bed
+			binaryWriter.write();
+		} catch (Exception e) {
+			failed = true;
+			System.err.println("Error: writing "+queryIndexFile);
+			e.printStackTrace();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {}
+			}
+			index.clear();
+			binaryWriter = null;
+			setDictionary = null;
+		}
+	}
+
+	/**Writes chr start stop ids and adds it to the tabix index. Start is interbase, the ids are those of the set in the dictionary.*/
+	public void writeInterval(String chr, int start, int stop, int setId) throws IOException {
+		sb.setLength(0);
+		sb.append(chr);
+		sb.append("\t");
+		sb.append(start);
+		sb.append("\t");
+		sb.append(stop);
+		sb.append("\t");
+		sb.append(setDictionary.fetchJoinedIds(setId));
+		sb.append("\n");
+		long filePointer = out.getFilePointer();
+		out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+		indexCreator.addFeature(new SimpleFeature(chr, start+1, stop), filePointer);
+		binaryWriter.addInterval(start, stop, setId);
+	}
+
+	public FileIdSetDictionary getSetDictionary() {
+		return setDictionary;
+	}
+
+	/**Returns the chrXX.qi.bin for a chrXX.qi.bed.gz.*/
+	public static File fetchBinaryFile(File queryIndexFile) {
+		String name = queryIndexFile.getName();
+		return new File(queryIndexFile.getParentFile(), name.substring(0, name.length() - ".qi.bed.gz".length()) + BinaryQueryIndex.EXTENSION);
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public long getNumberIntervals() {
+		return numberIntervals;
+	}
+
+	public String toString() {
+		return chrom+" "+queryIndexFile;
+	}
+}
@@ -0,0 +1,208 @@
+package edu.utah.hci.indexer;
+
+/**Parses the interbase start stop coordinates from vcf, bed, and other tab delimited data file records without splitting the
+ * line or using a regex. Just the needed columns are scanned, the results are held as primitives and the column offsets reused,
+ * so nothing is allocated per record. Not thread safe, use one per loader.
+ *
+ * The vcf logic matches QueryRequest.fetchEffectedBps, any changes here, please update it too.*/
+public class RecordCoordinateParser {
+
+	//fields
+	private boolean verbose;
+	private int start;
+	private int stop;
+
+	//column begin and end (exclusive) offsets of the last scanned record
+	private int[] columnBegin = new int[16];
+	private int[] columnEnd = new int[16];
+	private int numberColumns = 0;
+
+	//returned by parseInt for a bad number
+	private static final long BAD_INT = Long.MIN_VALUE;
+
+	public RecordCoordinateParser(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**Parses the effected bps of a vcf record, returns false if it should be skipped.
+	 * SNV=iPos,iPos+LenRef; INS=iPos,iPos+lenRef+1; DEL=iPos+1,iPos+lenRef; iPos=pos-1.
+	 * For multi alts, the min begin and max end of all combinations.
+	 * For alts with < indicating a CNV or trans, attempts to parse the END=number from the INFO column.*/
+	public boolean parseVcf(CharSequence record) {
+		//CHROM	POS	ID	REF	ALT QUAL FILTER INFO
+		//  0    1   2   3   4   5      6     7
+		if (scanColumns(record, 7) < 5) return false;
+
+		//put into interbase coordinates
+		long pos = parseInt(record, columnBegin[1], columnEnd[1]);
+		if (pos == BAD_INT) return false;
+		int iPos = (int)pos - 1;
+		int refBegin = columnBegin[3];
+		int lenRef = columnEnd[3] - refBegin;
+		int altBegin = columnBegin[4];
+		int altEnd = columnEnd[4];
+
+		//any commas/ multi alts?
+		int comma = indexOf(record, ',', altBegin, altEnd);
+		if (comma == -1) {
+			long ss = fetchEffectedBps(record, iPos, refBegin, lenRef, altBegin, altEnd, true);
+			if (ss == BAD_INT || ss == -1) return false;
+			return true;
+		}
+
+		//OK commas present, thus multi alts, these need to be tested for max effect
+		int begin = Integer.MAX_VALUE;
+		int end = -1;
+		int b = altBegin;
+		while (b <= altEnd) {
+			int e = indexOf(record, ',', b, altEnd);
+			if (e == -1) e = altEnd;
+			//skip empty alts
+			if (e > b) {
+				long ss = fetchEffectedBps(record, iPos, refBegin, lenRef, b, e, false);
+				if (ss == BAD_INT) return false;
+				if (ss != -1) {
+					if (start < begin) begin = start;
+					if (stop > end) end = stop;
+				}
+			}
+			b = e + 1;
+		}
+		if (begin == Integer.MAX_VALUE) return false;
+		start = begin;
+		stop = end;
+		return true;
+	}
+
+	/**Sets the start stop for one alt. Returns 0 if ok, -1 to skip the alt, or BAD_INT if the record can't be parsed.*/
+	private long fetchEffectedBps(CharSequence record, int iPos, int refBegin, int lenRef, int altBegin, int altEnd, boolean singleAlt) {
+		int lenAlt = altEnd - altBegin;
+		if (lenAlt == 0) return -1;
+
+		//watch out for < in the alt indicative of a CNV, structural var, or gvcf block
+		if (indexOf(record, '<', altBegin, altEnd) != -1) {
+			long end = -1;
+			if (numberColumns > 7) end = parseInfoEnd(record, columnBegin[7], columnEnd[7]);
+			if (end == BAD_INT) return BAD_INT;
+			if (end == -1) {
+				if (verbose && singleAlt) System.err.println("\tWARNING: found a < containing alt, yet failed to parse END=number position, skipping if this is the only alt -> "+record);
+				return -1;
+			}
+			start = iPos;
+			stop = (int)end;
+		}
+		//single or multi adjacent snp? return just the changed bps,  GC->AT or G->A or G->.
+		else if (lenRef == lenAlt) {
+			start = iPos;
+			stop = iPos + lenRef;
+		}
+		//ins? return the bases on either side of the insertion GC->GATTA or G->ATTA
+		else if (lenAlt > lenRef) {
+			start = iPos;
+			stop = iPos + lenRef + 1;
+			//C->TTAAT
+			if (lenRef == 0 || record.charAt(refBegin) != record.charAt(altBegin)) start--;
+		}
+		//del? return the uneffected bp and those that are deleted to match tabix's behaviour AT->A, ATTCG->ACC
+		else {
+			start = iPos;
+			stop = iPos + lenRef;
+			//AT->C
+			if (record.charAt(refBegin) != record.charAt(altBegin)) start--;
+		}
+		return 0;
+	}
+
+	/**Parses the start and stop columns, subtracting the third value from the start, returns false if it should be skipped.*/
+	public boolean parse(CharSequence record, int[] startStopSubtract) {
+		int maxColumn = Math.max(startStopSubtract[0], startStopSubtract[1]);
+		long s = BAD_INT;
+		long e = BAD_INT;
+		if (scanColumns(record, maxColumn) > maxColumn) {
+			s = parseInt(record, columnBegin[startStopSubtract[0]], columnEnd[startStopSubtract[0]]);
+			e = parseInt(record, columnBegin[startStopSubtract[1]], columnEnd[startStopSubtract[1]]);
+		}
+		if (s == BAD_INT || e == BAD_INT) {
+			if (verbose) System.err.println("\tWARNING: failed to parse start stop, skipping -> "+record);
+			return false;
+		}
+		start = (int)s - startStopSubtract[2];
+		stop = (int)e;
+		return true;
+	}
+
+	/**Finds the begin and end offsets of columns 0 to maxColumn, returns the number found.*/
+	private int scanColumns(CharSequence record, int maxColumn) {
+		if (maxColumn >= columnBegin.length) {
+			columnBegin = new int[maxColumn+1];
+			columnEnd = new int[maxColumn+1];
+		}
+		int length = record.length();
+		int b = 0;
+		numberColumns = 0;
+		while (numberColumns <= maxColumn) {
+			int e = indexOf(record, '\t', b, length);
+			if (e == -1) e = length;
+			columnBegin[numberColumns] = b;
+			columnEnd[numberColumns++] = e;
+			if (e == length) break;
+			b = e + 1;
+		}
+		return numberColumns;
+	}
+
+	/**Returns the number after the last case insensitive END= in the INFO field, -1 if not found, or BAD_INT if too big.*/
+	private static long parseInfoEnd(CharSequence record, int begin, int end) {
+		for (int i = end - 5; i >= begin; i--) {
+			char c = record.charAt(i);
+			if ((c == 'E' || c == 'e') && isEq(record.charAt(i+1), 'N') && isEq(record.charAt(i+2), 'D') && record.charAt(i+3) == '=' && isDigit(record.charAt(i+4))) {
+				int e = i + 5;
+				while (e < end && isDigit(record.charAt(e))) e++;
+				return parseInt(record, i + 4, e);
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isEq(char c, char upper) {
+		return c == upper || c == (char)(upper + 32);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static int indexOf(CharSequence s, char c, int begin, int end) {
+		for (int i = begin; i < end; i++) if (s.charAt(i) == c) return i;
+		return -1;
+	}
+
+	/**Same as Integer.parseInt on the subsequence for ascii digits, returns BAD_INT if it can't be parsed.*/
+	private static long parseInt(CharSequence s, int begin, int end) {
+		if (begin >= end) return BAD_INT;
+		boolean negative = false;
+		char first = s.charAt(begin);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			if (++begin == end) return BAD_INT;
+		}
+		long value = 0;
+		for (int i = begin; i < end; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') return BAD_INT;
+			value = value * 10 + (c - '0');
+			if (value > 2147483648l) return BAD_INT;
+		}
+		if (negative) value = -value;
+		if (value > Integer.MAX_VALUE) return BAD_INT;
+		return value;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getStop() {
+		return stop;
+	}
+}
@@ -0,0 +1,157 @@
+package edu.utah.hci.indexer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**Collects the interbase start stop regions of data file records as packed primitive events and sweeps them to build
+ * the chrXX.qi.bed.gz intervals, each with the id of the set of files that intersect it, see FileIdSetDictionary. Memory scales with the
+ * number of records added, not the length of the chromosome.
+ *
+ * Each event is packed into a long: bp position (upper 32 bits), file id (next 31 bits), 0 start or 1 stop (lowest bit).
+ * Sorting the longs thus orders the events by position, then file id, with starts before stops.
+ *
+ * Each loader fills its own builder without locking, these are then concatenated with merge() before the sweep.*/
+public class SweepLineIndexBuilder {
+
+	//fields
+	private long[] events = new long[1024];
+	private int numberEvents = 0;
+	private int[] sortedIds = null;
+
+	/**Adds a region, start must be >= 0 and < stop. Not thread safe.*/
+	public void addRegion(int start, int stop, int fileId) {
+		if (numberEvents + 2 > events.length) grow(numberEvents + 2);
+		long id = ((long)fileId) << 1;
+		events[numberEvents++] = (((long)start) << 32) | id;
+		events[numberEvents++] = (((long)stop) << 32) | id | 1l;
+	}
+
+	/**Concatenates the events of the builders into one, releasing each builder's events as they are copied. 
+	 * The list is emptied.*/
+	public static SweepLineIndexBuilder merge(List<SweepLineIndexBuilder> builders) {
+		if (builders.size() == 1) {
+			SweepLineIndexBuilder b = builders.get(0);
+			builders.clear();
+			return b;
+		}
+		long total = 0;
+		for (SweepLineIndexBuilder b: builders) total += b.numberEvents;
+		if (total > Integer.MAX_VALUE - 8) throw new IllegalStateException("Too many regions to index in one chromosome, "+ (total/2));
+		SweepLineIndexBuilder merged = new SweepLineIndexBuilder();
+		merged.events = new long[Math.max(2, (int)total)];
+		for (SweepLineIndexBuilder b: builders) {
+			System.arraycopy(b.events, 0, merged.events, merged.numberEvents, b.numberEvents);
+			merged.numberEvents += b.numberEvents;
+			b.events = null;
+			b.numberEvents = 0;
+		}
+		builders.clear();
+		return merged;
+	}
+
+	private void grow(int minLength) {
+		long newLength = events.length + (events.length >> 1);
+		if (newLength < minLength) newLength = minLength;
+		if (newLength > Integer.MAX_VALUE - 8) newLength = Integer.MAX_VALUE - 8;
+		if (newLength < minLength) throw new IllegalStateException("Too many regions to index in one chromosome, "+ (numberEvents/2));
+		events = Arrays.copyOf(events, (int)newLength);
+	}
+
+	/**Sorts the events and writes each interval that intersects one or more files as chr start stop fileIdSet.
+	 * Adjacent intervals with the same file id set are merged.
+	 * @param numberFileIds one more than the maximum file id that was added
+	 * @return the number of intervals written*/
+	public long sweep(String chr, int numberFileIds, QueryIndexWriter out) throws IOException {
+		Arrays.parallelSort(events, 0, numberEvents);
+
+		//per file id open region counts and the file ids with an open region
+		int[] counts = new int[numberFileIds];
+		int[] openIds = new int[numberFileIds];
+		int[] openIndex = new int[numberFileIds];
+		sortedIds = new int[numberFileIds];
+		int numberOpen = 0;
+		boolean idsChanged = false;
+		int setId = -1;
+		FileIdSetDictionary dictionary = out.getSetDictionary();
+
+		//interval waiting to be written, might be extended by the next
+		int pendingStart = -1;
+		int pendingStop = -1;
+		int pendingSetId = -1;
+		long numberWritten = 0;
+
+		int lastPosition = -1;
+		int i = 0;
+		while (i < numberEvents) {
+			int position = (int)(events[i] >>> 32);
+
+			//close the interval from the last position to this one?
+			if (numberOpen != 0) {
+				if (idsChanged) {
+					setId = fetchSetId(openIds, numberOpen, dictionary);
+					idsChanged = false;
+				}
+				//adjacent with the same ids? then extend
+				if (pendingSetId != -1 && pendingStop == lastPosition && pendingSetId == setId) pendingStop = position;
+				else {
+					if (pendingSetId != -1) {
+						out.writeInterval(chr, pendingStart, pendingStop, pendingSetId);
+						numberWritten++;
+					}
+					pendingStart = lastPosition;
+					pendingStop = position;
+					pendingSetId = setId;
+				}
+			}
+
+			//apply all of the events at this position
+			for (; i< numberEvents; i++) {
+				long event = events[i];
+				if ((int)(event >>> 32) != position) break;
+				int fileId = (int)((event & 0xFFFFFFFFl) >>> 1);
+				//start?
+				if ((event & 1l) == 0) {
+					if (counts[fileId]++ == 0) {
+						openIndex[fileId] = numberOpen;
+						openIds[numberOpen++] = fileId;
+						idsChanged = true;
+					}
+				}
+				//stop, remove if it's the last region open for the file
+				else if (--counts[fileId] == 0) {
+					int index = openIndex[fileId];
+					int lastId = openIds[--numberOpen];
+					openIds[index] = lastId;
+					openIndex[lastId] = index;
+					idsChanged = true;
+				}
+			}
+			lastPosition = position;
+		}
+
+		//write last
+		if (pendingSetId != -1) {
+			out.writeInterval(chr, pendingStart, pendingStop, pendingSetId);
+			numberWritten++;
+		}
+		sortedIds = null;
+		return numberWritten;
+	}
+
+	/**Returns the dictionary id of the set of open file ids.*/
+	private int fetchSetId(int[] openIds, int numberOpen, FileIdSetDictionary dictionary) {
+		System.arraycopy(openIds, 0, sortedIds, 0, numberOpen);
+		if (numberOpen > 1) Arrays.sort(sortedIds, 0, numberOpen);
+		return dictionary.fetchSetId(sortedIds, numberOpen);
+	}
+
+	/**Removes all of the events, keeps the allocated arrays for reuse.*/
+	public void clear() {
+		numberEvents = 0;
+	}
+
+	public long getNumberRegions() {
+		return numberEvents/2;
+	}
+}
@@ -0,0 +1,350 @@
+package edu.utah.hci.misc;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**Compressed bitmap of non negative ints in the style of Roaring. The ints are split by their upper 16 bits into containers,
+ * each holding the lower 16 bits as a sorted char array when sparse, up to 4096 values, or a 65536 bit long[1024] when dense.
+ * Used for the sets of file ids in the binary query indexes. Not thread safe.
+ *
+ * Serialized, big endian: number of containers int, then for each container its key char, cardinality int, and either the
+ * cardinality sorted chars or the 1024 longs of the bitmap when the cardinality is > 4096.*/
+public class RoaringBitmap {
+
+	public static final int MAX_ARRAY_SIZE = 4096;
+	private static final int BITMAP_LONGS = 1024;
+
+	//fields, containers are char[] arrays or long[] bitmaps
+	private char[] keys = new char[4];
+	private Object[] containers = new Object[4];
+	private int[] cardinalities = new int[4];
+	private int size = 0;
+	private char[] mergeBuffer = null;
+	private char[] readBuffer = null;
+
+	/**Returns a bitmap of the first n ids.*/
+	public static RoaringBitmap fromSorted(int[] ids, int n) {
+		RoaringBitmap rb = new RoaringBitmap();
+		for (int i=0; i< n; i++) rb.add(ids[i]);
+		return rb;
+	}
+
+	/**Adds a non negative int, fastest when added in ascending order.*/
+	public void add(int x) {
+		int index = fetchContainerIndex((char)(x >>> 16));
+		char low = (char)x;
+		Object c = containers[index];
+		int card = cardinalities[index];
+		if (c instanceof long[]) {
+			long[] bits = (long[])c;
+			long before = bits[low >>> 6];
+			bits[low >>> 6] = before | (1l << low);
+			if (bits[low >>> 6] != before) cardinalities[index]++;
+			return;
+		}
+		char[] array = (char[])c;
+		//append?
+		int pos;
+		if (card == 0 || array[card-1] < low) pos = card;
+		else {
+			pos = Arrays.binarySearch(array, 0, card, low);
+			if (pos >= 0) return;
+			pos = -pos - 1;
+		}
+		if (card == MAX_ARRAY_SIZE) {
+			long[] bits = toBitmap(array, card);
+			bits[low >>> 6] |= 1l << low;
+			containers[index] = bits;
+			cardinalities[index] = card + 1;
+			return;
+		}
+		if (card == array.length) {
+			array = Arrays.copyOf(array, Math.min(MAX_ARRAY_SIZE, Math.max(4, card * 2)));
+			containers[index] = array;
+		}
+		System.arraycopy(array, pos, array, pos+1, card - pos);
+		array[pos] = low;
+		cardinalities[index] = card + 1;
+	}
+
+	/**ORs a bitmap serialized at the offset into this one.*/
+	public void or(ByteBuffer buffer, int offset) {
+		int numberContainers = buffer.getInt(offset);
+		int pos = offset + 4;
+		for (int i=0; i< numberContainers; i++) {
+			char key = buffer.getChar(pos);
+			int card = buffer.getInt(pos + 2);
+			pos += 6;
+			int index = fetchContainerIndex(key);
+			if (card > MAX_ARRAY_SIZE) {
+				long[] bits = fetchBitmap(index);
+				int total = cardinalities[index];
+				for (int j=0; j< BITMAP_LONGS; j++) {
+					long before = bits[j];
+					long after = before | buffer.getLong(pos);
+					if (after != before) {
+						total += Long.bitCount(after) - Long.bitCount(before);
+						bits[j] = after;
+					}
+					pos += 8;
+				}
+				cardinalities[index] = total;
+			}
+			else {
+				if (readBuffer == null || readBuffer.length < card) readBuffer = new char[Math.max(card, 64)];
+				for (int j=0; j< card; j++) readBuffer[j] = buffer.getChar(pos + 2 * j);
+				orArray(index, readBuffer, card);
+				pos += 2 * card;
+			}
+		}
+	}
+
+	/**ORs the other bitmap into this one container by container, the other is just read.*/
+	public void or(RoaringBitmap other) {
+		for (int i=0; i< other.size; i++) {
+			int index = fetchContainerIndex(other.keys[i]);
+			Object oc = other.containers[i];
+			if (oc instanceof long[]) {
+				long[] otherBits = (long[])oc;
+				long[] bits = fetchBitmap(index);
+				int total = 0;
+				for (int j=0; j< BITMAP_LONGS; j++) {
+					bits[j] |= otherBits[j];
+					total += Long.bitCount(bits[j]);
+				}
+				cardinalities[index] = total;
+			}
+			else orArray(index, (char[])oc, other.cardinalities[i]);
+		}
+	}
+
+	/**ORs card sorted chars into the container.*/
+	private void orArray(int index, char[] values, int card) {
+		Object c = containers[index];
+		if (c instanceof long[]) {
+			long[] bits = (long[])c;
+			int total = cardinalities[index];
+			for (int j=0; j< card; j++) {
+				char low = values[j];
+				long before = bits[low >>> 6];
+				bits[low >>> 6] = before | (1l << low);
+				if (bits[low >>> 6] != before) total++;
+			}
+			cardinalities[index] = total;
+			return;
+		}
+		//merge the two sorted arrays
+		char[] array = (char[])c;
+		int thisCard = cardinalities[index];
+		int max = thisCard + card;
+		if (mergeBuffer == null || mergeBuffer.length < max) mergeBuffer = new char[Math.max(max, 64)];
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		while (i < thisCard && j < card) {
+			char a = array[i];
+			char b = values[j];
+			if (a < b) {
+				mergeBuffer[n++] = a;
+				i++;
+			}
+			else if (b < a) {
+				mergeBuffer[n++] = b;
+				j++;
+			}
+			else {
+				mergeBuffer[n++] = a;
+				i++;
+				j++;
+			}
+		}
+		while (i < thisCard) mergeBuffer[n++] = array[i++];
+		while (j < card) mergeBuffer[n++] = values[j++];
+		if (n > MAX_ARRAY_SIZE) containers[index] = toBitmap(mergeBuffer, n);
+		else {
+			if (array.length < n) array = new char[Math.min(MAX_ARRAY_SIZE, Math.max(n, array.length * 2))];
+			System.arraycopy(mergeBuffer, 0, array, 0, n);
+			containers[index] = array;
+		}
+		cardinalities[index] = n;
+	}
+
+	/**Keeps only the ints also in the other bitmap, which is just read so it can be shared between threads.*/
+	public void and(RoaringBitmap other) {
+		int kept = 0;
+		for (int i=0; i< size; i++) {
+			int o = Arrays.binarySearch(other.keys, 0, other.size, keys[i]);
+			if (o < 0) continue;
+			Object c = containers[i];
+			Object oc = other.containers[o];
+			int card = 0;
+			if (c instanceof long[]) {
+				long[] bits = (long[])c;
+				if (oc instanceof long[]) {
+					long[] otherBits = (long[])oc;
+					for (int j=0; j< BITMAP_LONGS; j++) {
+						bits[j] &= otherBits[j];
+						card += Long.bitCount(bits[j]);
+					}
+				}
+				else {
+					//few enough to be an array
+					char[] otherArray = (char[])oc;
+					char[] array = new char[Math.max(4, other.cardinalities[o])];
+					for (int j=0; j< other.cardinalities[o]; j++) {
+						char low = otherArray[j];
+						if ((bits[low >>> 6] & (1l << low)) != 0) array[card++] = low;
+					}
+					c = array;
+				}
+			}
+			else {
+				char[] array = (char[])c;
+				for (int j=0; j< cardinalities[i]; j++) {
+					if (other.containsLow(o, array[j])) array[card++] = array[j];
+				}
+			}
+			if (card == 0) continue;
+			keys[kept] = keys[i];
+			containers[kept] = c;
+			cardinalities[kept] = card;
+			kept++;
+		}
+		Arrays.fill(containers, kept, size, null);
+		size = kept;
+	}
+
+	/**Returns true if the int is present.*/
+	public boolean contains(int x) {
+		int index = Arrays.binarySearch(keys, 0, size, (char)(x >>> 16));
+		if (index < 0) return false;
+		return containsLow(index, (char)x);
+	}
+
+	private boolean containsLow(int index, char low) {
+		Object c = containers[index];
+		if (c instanceof long[]) return (((long[])c)[low >>> 6] & (1l << low)) != 0;
+		return Arrays.binarySearch((char[])c, 0, cardinalities[index], low) >= 0;
+	}
+
+	/**Returns the container as a bitmap, converting it if needed.*/
+	private long[] fetchBitmap(int index) {
+		Object c = containers[index];
+		if (c instanceof long[]) return (long[])c;
+		long[] bits = toBitmap((char[])c, cardinalities[index]);
+		containers[index] = bits;
+		return bits;
+	}
+
+	private static long[] toBitmap(char[] array, int card) {
+		long[] bits = new long[BITMAP_LONGS];
+		for (int i=0; i< card; i++) bits[array[i] >>> 6] |= 1l << array[i];
+		return bits;
+	}
+
+	/**Returns the index of the container for the key, inserting an empty one if needed.*/
+	private int fetchContainerIndex(char key) {
+		//most adds are to the last container
+		if (size != 0 && keys[size-1] == key) return size - 1;
+		int index = Arrays.binarySearch(keys, 0, size, key);
+		if (index >= 0) return index;
+		index = -index - 1;
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+			cardinalities = Arrays.copyOf(cardinalities, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index+1, size - index);
+		System.arraycopy(containers, index, containers, index+1, size - index);
+		System.arraycopy(cardinalities, index, cardinalities, index+1, size - index);
+		keys[index] = key;
+		containers[index] = new char[4];
+		cardinalities[index] = 0;
+		size++;
+		return index;
+	}
+
+	/**Returns the ints in ascending order.*/
+	public int[] toArray() {
+		int[] values = new int[getCardinality()];
+		int n = 0;
+		for (int i=0; i< size; i++) {
+			int high = keys[i] << 16;
+			Object c = containers[i];
+			if (c instanceof long[]) {
+				long[] bits = (long[])c;
+				for (int j=0; j< BITMAP_LONGS; j++) {
+					long word = bits[j];
+					while (word != 0) {
+						values[n++] = high | (j << 6) | Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+			}
+			else {
+				char[] array = (char[])c;
+				for (int j=0; j< cardinalities[i]; j++) values[n++] = high | array[j];
+			}
+		}
+		return values;
+	}
+
+	public void serialize(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for (int i=0; i< size; i++) {
+			out.writeChar(keys[i]);
+			out.writeInt(cardinalities[i]);
+			Object c = containers[i];
+			if (cardinalities[i] > MAX_ARRAY_SIZE) {
+				for (long l: fetchBitmap(i)) out.writeLong(l);
+			}
+			else if (c instanceof long[]) {
+				//a bitmap container with few enough values is written as an array
+				int[] values = new int[cardinalities[i]];
+				int n = 0;
+				long[] bits = (long[])c;
+				for (int j=0; j< BITMAP_LONGS; j++) {
+					long word = bits[j];
+					while (word != 0) {
+						values[n++] = (j << 6) | Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+				for (int v: values) out.writeChar(v);
+			}
+			else {
+				char[] array = (char[])c;
+				for (int j=0; j< cardinalities[i]; j++) out.writeChar(array[j]);
+			}
+		}
+	}
+
+	/**Returns the number of bytes serialize() writes.*/
+	public long getSerializedSize() {
+		long bytes = 4;
+		for (int i=0; i< size; i++) {
+			bytes += 6;
+			if (cardinalities[i] > MAX_ARRAY_SIZE) bytes += 8 * BITMAP_LONGS;
+			else bytes += 2 * cardinalities[i];
+		}
+		return bytes;
+	}
+
+	/**Empties the bitmap, keeps the key arrays for reuse.*/
+	public void clear() {
+		Arrays.fill(containers, 0, size, null);
+		size = 0;
+	}
+
+	public int getCardinality() {
+		int card = 0;
+		for (int i=0; i< size; i++) card += cardinalities[i];
+		return card;
+	}
+
+	public boolean isEmpty() {
+		return getCardinality() == 0;
+	}
+}
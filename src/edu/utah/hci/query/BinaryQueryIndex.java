@@ -0,0 +1,110 @@
+package edu.utah.hci.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.utah.hci.misc.RoaringBitmap;
+
+/**Memory mapped reader for the binary chrXX.qi.bin query index written by the GQueryIndexer next to each chrXX.qi.bed.gz.
+ * It holds the same intervals but lookups are a binary search over the interval boundaries, no text parsing.
+ * Thread safe, only absolute reads are made on the mapped buffers.
+ *
+ * Layout, big endian:
+ * magic int, version int, numberIntervals int, numberSets int,
+ * interval starts int[numberIntervals], interval stops int[numberIntervals], interval set indexes int[numberIntervals],
+ * set offsets long[numberSets+1] into the set data,
+ * set data: each distinct file id set as a serialized RoaringBitmap.
+ *
+ * The intervals are interbase, sorted, and don't overlap so the starts and stops are both in ascending order.*/
+public class BinaryQueryIndex implements ChromIndexLookup {
+
+	public static final int MAGIC = 0x47514942; //GQIB
+	public static final int VERSION = 2;
+	public static final String EXTENSION = ".qi.bin";
+	public static final int HEADER_BYTES = 16;
+
+	//fields
+	private File file;
+	private int numberIntervals;
+	private int numberSets;
+	private IntBuffer starts;
+	private IntBuffer stops;
+	private IntBuffer setIndexes;
+	private LongBuffer setOffsets;
+	private ByteBuffer setData;
+
+	/**Maps the file, throws an IOException if it isn't a readable version.*/
+	public BinaryQueryIndex(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			if (header.getInt(0) != MAGIC) throw new IOException("Not a binary query index "+file);
+			if (header.getInt(4) != VERSION) throw new IOException("Unsupported binary query index version "+header.getInt(4)+" in "+file);
+			numberIntervals = header.getInt(8);
+			numberSets = header.getInt(12);
+
+			long position = HEADER_BYTES;
+			long intervalBytes = 4l * numberIntervals;
+			starts = channel.map(FileChannel.MapMode.READ_ONLY, position, intervalBytes).asIntBuffer();
+			position += intervalBytes;
+			stops = channel.map(FileChannel.MapMode.READ_ONLY, position, intervalBytes).asIntBuffer();
+			position += intervalBytes;
+			setIndexes = channel.map(FileChannel.MapMode.READ_ONLY, position, intervalBytes).asIntBuffer();
+			position += intervalBytes;
+			long offsetBytes = 8l * (numberSets + 1);
+			setOffsets = channel.map(FileChannel.MapMode.READ_ONLY, position, offsetBytes).asLongBuffer();
+			position += offsetBytes;
+			long setDataBytes = setOffsets.get(numberSets);
+			if (position + setDataBytes != channel.size()) throw new IOException("Truncated binary query index "+file);
+			setData = channel.map(FileChannel.MapMode.READ_ONLY, position, setDataBytes);
+		} finally {
+			//the mappings remain valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	public void or(int start, int stop, RoaringBitmap fileIds) {
+		int lastSet = -1;
+		for (int i = findFirstIntersecting(start); i< numberIntervals && starts.get(i) < stop; i++) {
+			int set = setIndexes.get(i);
+			if (set == lastSet) continue;
+			lastSet = set;
+			fileIds.or(setData, (int)setOffsets.get(set));
+		}
+	}
+
+	/**Returns the index of the first interval whose stop is past the start, or numberIntervals if none.*/
+	private int findFirstIntersecting(int start) {
+		int low = 0;
+		int high = numberIntervals;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (stops.get(mid) <= start) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	public static File fetchBinaryFile(File indexDir, String chr) {
+		return new File(indexDir, chr+EXTENSION);
+	}
+
+	public int getNumberIntervals() {
+		return numberIntervals;
+	}
+
+	public int getNumberSets() {
+		return numberSets;
+	}
+
+	public String toString() {
+		return file.toString();
+	}
+}
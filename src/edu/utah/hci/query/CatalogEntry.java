@@ -0,0 +1,81 @@
+package edu.utah.hci.query;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import edu.utah.hci.misc.Util;
+
+/**What's needed to register a query index dir without reading it again: the stamp of its fileInfo.txt.gz, the chromosomes
+ * with a chrXX.qi.bed.gz, and the data files by their id. Parsed from the index dir or read from the QueryCatalog.*/
+public class CatalogEntry {
+
+	//fields
+	private File indexDir;
+	private long stamp;
+	private String[] chromosomes;
+	//data file path, relative to the data dir's parent, by file id, null for unused ids
+	private String[] filePaths;
+	private boolean fromCatalog;
+
+	public CatalogEntry(File indexDir, long stamp, String[] chromosomes, String[] filePaths, boolean fromCatalog) {
+		this.indexDir = indexDir;
+		this.stamp = stamp;
+		this.chromosomes = chromosomes;
+		this.filePaths = filePaths;
+		this.fromCatalog = fromCatalog;
+	}
+
+	/**Reads the fileInfo.txt.gz and lists the chrXX.qi.bed.gz in the index dir.*/
+	public static CatalogEntry parse(File indexDir) throws IOException {
+		//stamp first so a rebuild while parsing is caught next time
+		long stamp = QueryIndexSnapshot.fetchIndexStamp(indexDir);
+		File info = new File(indexDir, "fileInfo.txt.gz");
+		if (info.exists() == false) throw new IOException("ERROR: cannot find the fileInfo.txt.gz file in the indexDir "+indexDir+", aborting.");
+
+		ArrayList<String> paths = new ArrayList<String>();
+		BufferedReader in = Util.fetchBufferedReader(info);
+		//skip first header line
+		in.readLine();
+		String line;
+		String[] fields;
+		while ((line = in.readLine()) != null) {
+			//Id0 Size1 LastMod2 Name3
+			fields = Util.TAB.split(line);
+			int id = Integer.parseInt(fields[0]);
+			while (paths.size() <= id) paths.add(null);
+			paths.set(id, fields[3]);
+		}
+		in.close();
+
+		File[] chrBed = Util.extractFiles(indexDir, ".qi.bed.gz");
+		String[] chromosomes = new String[chrBed.length];
+		for (int i=0; i< chrBed.length; i++) chromosomes[i] = chrBed[i].getName().replace(".qi.bed.gz", "");
+		Arrays.sort(chromosomes);
+
+		return new CatalogEntry(indexDir, stamp, chromosomes, paths.toArray(new String[paths.size()]), false);
+	}
+
+	public File getIndexDir() {
+		return indexDir;
+	}
+
+	public long getStamp() {
+		return stamp;
+	}
+
+	public String[] getChromosomes() {
+		return chromosomes;
+	}
+
+	public String[] getFilePaths() {
+		return filePaths;
+	}
+
+	/**True if read from the QueryCatalog rather than parsed from the index dir.*/
+	public boolean isFromCatalog() {
+		return fromCatalog;
+	}
+}
@@ -0,0 +1,10 @@
+package edu.utah.hci.query;
+
+import edu.utah.hci.misc.RoaringBitmap;
+
+/**A chromosome's query index that can be searched without tabix, see BinaryQueryIndex and ResidentQueryIndex.*/
+public interface ChromIndexLookup {
+
+	/**ORs in the ids of the files with an interval that intersects the interbase start stop region. Thread safe.*/
+	public void or(int start, int stop, RoaringBitmap fileIds);
+}
@@ -4,11 +4,20 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,33 +27,88 @@ import org.json.JSONObject;
 
 import edu.utah.hci.apps.GQueryIndexer;
 import edu.utah.hci.misc.Util;
+import edu.utah.hci.tabix.BgzfBlockCache;
+import edu.utah.hci.tabix.TabixIndexCache;
+import edu.utah.hci.tabix.TabixDataLineLoader;
+import edu.utah.hci.tabix.TabixReaderPool;
 
 /**Container for all of the individual Query objects.*/
 public class MasterQuery {
 
 	//fields
 	private File dataDir;
-	private HashMap<String, SingleQuery> queryIndexes = new HashMap<String, SingleQuery>();
-	private HashSet<String> availableIndexedChromosomes = new HashSet<String>();
+	//the SingleQuerys being served, replaced as a whole when changed indexes are reloaded
+	private volatile QueryIndexSnapshot snapshot = null;
 	private int numCharToSkipForDataDir;
 	private static final String[] stringFileHeaderPatternStarts = {"^[#/<@].+", "^browser.+", "^track.+", "^color.+", "^url.+", "^Hugo_Symbol.+"};
 	private Pattern[] fileHeaderStarts = null;
 	private int numberThreads = 0;
+	private int numberFetchThreads = 0;
+	private long minSplitBytes = TabixDataLineLoader.DEFAULT_MIN_SPLIT_BYTES;
 	private boolean initialized = false;
 	private static final Logger lg = LogManager.getLogger(MasterQuery.class);
 	private String buildInfo = null;
 	
-	//for building the SingleQuerys
+	//heap budget for holding query indexes in memory, 0 to always use the files
+	private long residentIndexBytes = 0;
+	private long residentIndexBytesUsed = 0;
+	private int numberResidentIndexes = 0;
+	
+	//shared by all requests, lookups are cpu bound index searches, fetches are io bound data file reads
+	public static final int MAX_QUEUED_TASKS = 10000;
+	private ThreadPoolExecutor lookupPool = null;
+	private ThreadPoolExecutor fetchPool = null;
+	
+	//open TabixReaders kept across requests, each holds a file descriptor
+	public static final int DEFAULT_MAX_OPEN_READERS = 1000;
+	private TabixReaderPool readerPool = null;
+	
+	//inflated bgzf blocks of the hot regions kept across requests
+	public static final int DEFAULT_BLOCK_CACHE_MB = 256;
+	
+	//results of repeated requests, cleared when the snapshot generation changes
+	private QueryResultCache resultCache = null;
+	
+	//register SingleQuery stubs from a directory scan and load each on first use or by the background warm up
+	private boolean lazyLoad = false;
+	private ExecutorService warmer = null;
+	
+	//checks for rebuilt indexes in the background
+	private ScheduledExecutorService reloader = null;
+	private long numberReloads = 0;
+	private long msLastReload = 0;
+	
+	//for building the SingleQuerys, one build at a time
+	private final Object buildLock = new Object();
 	private long msTimeToComplete = 0;
 	private ArrayList<File> queryIndexDirs = null;
 	private int numberQueryBuildJobs = 0;
-	private int numberIndexedFiles = 0;
 	private int currentQueryBuildJobIndex = 0;
+	private HashMap<String, SingleQuery> builtIndexes = null;
+	//index dir : CatalogEntry from the QueryCatalog whose stamp still matches, only during the startup build
+	private HashMap<File, CatalogEntry> catalogEntries = null;
+	private int numberFromCatalog = 0;
 	
-	//constructor
+	//constructors
 	public MasterQuery (File dataDir) throws IOException {
+		this(dataDir, 0, 0, 0, 0, 0, false);
+	}
+	
+	/**@param numberThreads threads for index lookups, 0 for the available processors - 1.
+	 * @param numberFetchThreads threads for fetching data from the tabix files, 0 for twice the lookup threads.
+	 * @param residentIndexMB MB of heap to use for loading directory query indexes into memory, those that don't fit 
+	 * are searched from their files. Set to 0 to disable.
+	 * @param maxOpenReaders budget of TabixReaders to keep open across requests, 0 for the default.
+	 * @param blockCacheMB MB of heap for caching inflated bgzf blocks across requests, 0 for the default, -1 to disable.
+	 * @param lazyLoad register each query index from a directory scan and load it on first use or in the background, 
+	 * rather than loading all before returning. Data file existence is then checked when fetching.*/
+	public MasterQuery (File dataDir, int numberThreads, int numberFetchThreads, int residentIndexMB, int maxOpenReaders, int blockCacheMB, boolean lazyLoad) throws IOException {
 		long start = System.currentTimeMillis();
 		this.dataDir = dataDir;
+		this.numberThreads = numberThreads;
+		this.numberFetchThreads = numberFetchThreads;
+		residentIndexBytes = residentIndexMB * 1048576l;
+		this.lazyLoad = lazyLoad;
 		
 		//how much to trim
 		numCharToSkipForDataDir = dataDir.getParentFile().toString().length()+1;
@@ -54,66 +118,409 @@ public class MasterQuery {
 		
 		//threads to use
 		int numAvail = Runtime.getRuntime().availableProcessors();
-		if (numberThreads < 1) numberThreads =  numAvail - 1;
-		lg.info(numAvail +" Available processors, using "+numberThreads+" query threads");
+		if (this.numberThreads < 1) this.numberThreads =  Math.max(1, numAvail - 1);
+		if (this.numberFetchThreads < 1) this.numberFetchThreads = 2 * this.numberThreads;
+		lg.info(numAvail +" Available processors, using "+this.numberThreads+" lookup and "+this.numberFetchThreads+" fetch threads");
+		lookupPool = makePool("GQuery-lookup-", this.numberThreads);
+		fetchPool = makePool("GQuery-fetch-", this.numberFetchThreads);
+		BgzfBlockCache blockCache = null;
+		if (blockCacheMB >= 0) blockCache = new BgzfBlockCache((blockCacheMB > 0 ? blockCacheMB : DEFAULT_BLOCK_CACHE_MB) * 1048576l);
+		readerPool = new TabixReaderPool(maxOpenReaders > 0 ? maxOpenReaders : DEFAULT_MAX_OPEN_READERS, new TabixIndexCache(TabixIndexCache.DEFAULT_MAX_BYTES), blockCache);
 		
-		buildQueries();
+		try {
+			buildQueries();
+		} catch (IOException e) {
+			shutdown();
+			throw e;
+		}
 		
 		msTimeToComplete = System.currentTimeMillis() - start;
-		buildInfo = msTimeToComplete +" ms to register "+numberQueryBuildJobs+" query indexes with "+numberIndexedFiles+ " data files";
+		if (lazyLoad) {
+			buildInfo = msTimeToComplete +" ms to register "+numberQueryBuildJobs+" query indexes ("+numberFromCatalog+" from the catalog), loading them in the background";
+			warmer = Executors.newSingleThreadExecutor(new NamedThreadFactory("GQuery-warmup-"));
+			warmUp(snapshot.getQueryIndexes().values());
+		}
+		else buildInfo = msTimeToComplete +" ms to register "+numberQueryBuildJobs+" query indexes ("+numberFromCatalog+" from the catalog) with "+snapshot.getNumberIndexedFiles()+ " data files";
+		if (residentIndexBytes != 0) buildInfo = buildInfo+", "+numberResidentIndexes+" held in memory using "+
+				Util.formatNumberOneFraction(residentIndexBytesUsed/1048576.0)+" of "+(residentIndexBytes/1048576)+" MB";
 		lg.info(buildInfo);
 	}
 
 
 	private void buildQueries() throws IOException {
-		//find all of the QueryIndexes built by the indexer
-		queryIndexDirs = Util.fetchNamedDirectoriesRecursively(dataDir, GQueryIndexer.INDEX_DIR_NAME);
-		numberQueryBuildJobs = queryIndexDirs.size();
-		if (numberQueryBuildJobs == 0) throw new IOException ("ERROR: failed to find any "+GQueryIndexer.INDEX_DIR_NAME+" directories in "+dataDir+" . Has this been MultiGQueryIndexed?");
-
-		//create threaded loaders
-		int numLoaders = this.numberThreads;
-		if (numberQueryBuildJobs < numLoaders) numLoaders = numberQueryBuildJobs;
-		SingleQueryIndexBuilder[] loader = new SingleQueryIndexBuilder[numLoaders];
-		ExecutorService executor = Executors.newFixedThreadPool(numLoaders);
-		for (int i=0; i< loader.length; i++){
-			loader[i] = new SingleQueryIndexBuilder(this);
-			executor.execute(loader[i]);
-		}
-		executor.shutdown();
-		//spins here until the executer is terminated, e.g. all threads complete
-		while (!executor.isTerminated()) {}
-		//check loaders 
-		for (SingleQueryIndexBuilder c: loader) {
-			if (c.isFailed()) throw new IOException("ERROR: SingleTabixQueryBuilder issue! \n"+c);
+		//find all of the QueryIndexes built by the indexer, from the catalog of the last start if all of its dirs are still there
+		HashMap<File, CatalogEntry> catalog = QueryCatalog.load(dataDir);
+		ArrayList<File> indexDirs = null;
+		if (catalog != null) {
+			indexDirs = new ArrayList<File>(catalog.keySet());
+			for (File dir: indexDirs) {
+				if (new File(dir, "fileInfo.txt.gz").exists() == false) {
+					lg.info("Index dirs changed since the "+QueryCatalog.FILE_NAME+" was written, scanning "+dataDir);
+					indexDirs = null;
+					break;
+				}
+			}
 		}
+		if (indexDirs == null) indexDirs = Util.fetchNamedDirectoriesRecursively(dataDir, GQueryIndexer.INDEX_DIR_NAME);
+		if (indexDirs.size() == 0) throw new IOException ("ERROR: failed to find any "+GQueryIndexer.INDEX_DIR_NAME+" directories in "+dataDir+" . Has this been MultiGQueryIndexed?");
+		//stamp before loading so an index rebuilt during the load is caught on the first check
+		HashMap<File, Long> stamps = fetchIndexStamps(indexDirs);
+		
+		//only the catalog entries of unchanged index dirs are used, the rest are parsed again
+		catalogEntries = new HashMap<File, CatalogEntry>();
+		if (catalog != null) {
+			for (File dir: indexDirs) {
+				CatalogEntry e = catalog.get(dir);
+				if (e != null && e.getStamp() == stamps.get(dir).longValue()) catalogEntries.put(dir, e);
+			}
+		}
+		numberFromCatalog = catalogEntries.size();
+		try {
+			snapshot = new QueryIndexSnapshot(buildSingleQueries(indexDirs), stamps, 1);
+		} finally {
+			catalogEntries = null;
+		}
+		if (catalog == null || numberFromCatalog != indexDirs.size() || catalog.size() != indexDirs.size()) writeCatalog(snapshot);
 		initialized = true;
 	}
 	
+	/**Saves the CatalogEntry of each SingleQuery for the next start, a failure is logged, the next start then scans the data dir.*/
+	private void writeCatalog(QueryIndexSnapshot s) {
+		ArrayList<CatalogEntry> entries = new ArrayList<CatalogEntry>();
+		for (SingleQuery sq: s.getQueryIndexes().values()) entries.add(sq.getCatalogEntry());
+		try {
+			QueryCatalog.write(dataDir, entries);
+		} catch (IOException e) {
+			lg.warn("Failed to write the "+QueryCatalog.FILE_NAME+" in "+dataDir+", the next start will scan for the query indexes\n"+Util.getStackTrace(e));
+		}
+	}
+	
+	/**Returns the CatalogEntry of an unchanged index dir during the startup build, otherwise null.*/
+	public synchronized CatalogEntry fetchCatalogEntry(File indexDir) {
+		return catalogEntries == null ? null : catalogEntries.get(indexDir);
+	}
+	
+	/**Builds a SingleQuery for each index dir with the lookup threads.
+	 * @return truncated data dir path : SingleQuery*/
+	private HashMap<String, SingleQuery> buildSingleQueries(ArrayList<File> indexDirs) throws IOException {
+		synchronized (buildLock) {
+			synchronized (this) {
+				queryIndexDirs = indexDirs;
+				numberQueryBuildJobs = indexDirs.size();
+				currentQueryBuildJobIndex = 0;
+				builtIndexes = new HashMap<String, SingleQuery>();
+			}
+			//create threaded loaders
+			int numLoaders = this.numberThreads;
+			if (numberQueryBuildJobs < numLoaders) numLoaders = numberQueryBuildJobs;
+			SingleQueryIndexBuilder[] loader = new SingleQueryIndexBuilder[numLoaders];
+			for (int i=0; i< loader.length; i++) loader[i] = new SingleQueryIndexBuilder(this);
+			runLookups(loader);
+			//check loaders 
+			for (SingleQueryIndexBuilder c: loader) {
+				if (c.isFailed()) throw new IOException("ERROR: SingleTabixQueryBuilder issue! \n"+c);
+			}
+			synchronized (this) {
+				HashMap<String, SingleQuery> built = builtIndexes;
+				builtIndexes = null;
+				return built;
+			}
+		}
+	}
+	
+	/**Rebuilds the SingleQuerys of index dirs that are new or whose fileInfo.txt.gz changed, drops those whose data dir is gone,
+	 * then swaps in a new snapshot. QueryRequests already running finish with the snapshot they started with. 
+	 * @return true if a new snapshot was swapped in.*/
+	public boolean reloadChangedIndexes() throws IOException {
+		synchronized (buildLock) {
+			QueryIndexSnapshot current = snapshot;
+			ArrayList<File> indexDirs = Util.fetchNamedDirectoriesRecursively(dataDir, GQueryIndexer.INDEX_DIR_NAME);
+			HashMap<File, Long> stamps = fetchIndexStamps(indexDirs);
+			HashMap<String, SingleQuery> indexes = new HashMap<String, SingleQuery>(current.getQueryIndexes());
+			
+			ArrayList<File> changed = new ArrayList<File>();
+			for (File dir: indexDirs) {
+				Long old = current.getIndexStamps().get(dir);
+				if (old == null || old.longValue() != stamps.get(dir).longValue()) changed.add(dir);
+			}
+			ArrayList<SingleQuery> dropped = new ArrayList<SingleQuery>();
+			for (File dir: current.getIndexStamps().keySet()) {
+				if (stamps.containsKey(dir)) continue;
+				//the indexer moves the old index aside before renaming in the new, keep serving the old until then
+				File parent = dir.getParentFile();
+				if (new File(parent, GQueryIndexer.PRIOR_DIR_NAME).exists() || new File(parent, GQueryIndexer.STAGING_DIR_NAME).exists()) {
+					stamps.put(dir, current.getIndexStamps().get(dir));
+				}
+				else dropped.add(indexes.remove(fetchTruncPath(dir)));
+			}
+			if (changed.size() == 0 && dropped.size() == 0) return false;
+			
+			//release the resident memory of those being replaced so their replacements fit
+			ArrayList<SingleQuery> replaced = new ArrayList<SingleQuery>(dropped);
+			for (File dir: changed) {
+				SingleQuery old = indexes.get(fetchTruncPath(dir));
+				if (old != null) replaced.add(old);
+			}
+			changeResidentIndexBytes(replaced, -1);
+			
+			HashMap<String, SingleQuery> built;
+			try {
+				built = buildSingleQueries(changed);
+			} catch (IOException e) {
+				changeResidentIndexBytes(replaced, 1);
+				throw e;
+			}
+			indexes.putAll(built);
+			snapshot = new QueryIndexSnapshot(indexes, stamps, current.getGeneration() + 1);
+			writeCatalog(snapshot);
+			if (lazyLoad) warmUp(built.values());
+			synchronized (this) {
+				numberReloads++;
+				msLastReload = System.currentTimeMillis();
+			}
+			lg.info("Reloaded "+changed.size()+" and dropped "+dropped.size()+" query indexes, now serving generation "+snapshot.getGeneration()+
+					" with "+indexes.size()+" query indexes and "+snapshot.getNumberIndexedFiles()+" data files");
+			return true;
+		}
+	}
+	
+	/**Loads any of the SingleQuerys not yet loaded with the lookup threads, a no op unless lazy.*/
+	public void loadQueries(ArrayList<SingleQuery> sqs) throws IOException {
+		ArrayList<SingleQueryLoader> loaders = new ArrayList<SingleQueryLoader>();
+		for (SingleQuery sq: sqs) if (sq.isLoaded() == false) loaders.add(new SingleQueryLoader(sq));
+		if (loaders.size() == 0) return;
+		runLookups(loaders.toArray(new SingleQueryLoader[loaders.size()]));
+		for (SingleQueryLoader l: loaders) {
+			if (l.error != null) throw new IOException("ERROR: failed to load the query index "+l.sq.getIndexDir(), l.error);
+		}
+	}
+	
+	/**Queues the SingleQuerys for loading on the warm up thread, those loaded by a request first or replaced by a reload are skipped.*/
+	private void warmUp(Collection<SingleQuery> sqs) {
+		for (final SingleQuery sq: sqs) {
+			warmer.execute(new Runnable() {
+				public void run() {
+					if (sq.isLoaded() || snapshot.getQueryIndexes().get(fetchTruncPath(sq.getIndexDir())) != sq) return;
+					try {
+						sq.load();
+					} catch (Exception e) {
+						lg.error("Failed to warm up the query index "+sq.getIndexDir()+", it will be tried again on first use\n"+Util.getStackTrace(e));
+					}
+				}
+			});
+		}
+	}
+	
+	private static class SingleQueryLoader implements Runnable {
+		private SingleQuery sq;
+		private IOException error = null;
+		
+		SingleQueryLoader(SingleQuery sq) {
+			this.sq = sq;
+		}
+		
+		public void run() {
+			try {
+				sq.load();
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+	}
+	
+	/**Checks for changed indexes every so many seconds on a background thread, a failed reload is logged and tried again on the next check.*/
+	public void startIndexReloader(int seconds) {
+		reloader = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("GQuery-reload-"));
+		reloader.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					reloadChangedIndexes();
+				} catch (Exception e) {
+					lg.error("Failed to reload the changed query indexes, still serving generation "+snapshot.getGeneration()+"\n"+Util.getStackTrace(e));
+				}
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+		lg.info("Checking for rebuilt query indexes every "+seconds+" seconds");
+	}
+	
+	private static HashMap<File, Long> fetchIndexStamps(ArrayList<File> indexDirs) {
+		HashMap<File, Long> stamps = new HashMap<File, Long>();
+		for (File dir: indexDirs) stamps.put(dir, QueryIndexSnapshot.fetchIndexStamp(dir));
+		return stamps;
+	}
+	
+	/**Returns the data dir path, less the data dir's parent, that keys the SingleQuery of the index dir.*/
+	public String fetchTruncPath(File indexDir) {
+		return indexDir.getParent().substring(numCharToSkipForDataDir)+"/";
+	}
+	
+	/**Turns on caching of complete request results, used by the web service where the same queries are sent again and again.
+	 * @param resultCacheMB MB of heap for the results, 0 for the default.*/
+	public void enableResultCache(int resultCacheMB) {
+		resultCache = new QueryResultCache((resultCacheMB > 0 ? resultCacheMB : QueryResultCache.DEFAULT_MAX_MB) * 1048576l);
+	}
+	
+	private static ThreadPoolExecutor makePool(String namePrefix, int numberThreads) {
+		//when the queue is full the requesting thread runs the task itself rather than failing
+		return new ThreadPoolExecutor(numberThreads, numberThreads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_TASKS), 
+				new NamedThreadFactory(namePrefix), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+	
+	/**Runs the index lookup loaders on the shared lookup pool and blocks until all complete.*/
+	public void runLookups(Runnable[] loaders) throws IOException {
+		runAll(lookupPool, loaders);
+	}
+	
+	/**Runs the data fetch loaders on the shared fetch pool and blocks until all complete.*/
+	public void runFetches(Runnable[] loaders) throws IOException {
+		runAll(fetchPool, loaders);
+	}
+	
+	/**Starts a data fetch loader on the shared fetch pool without waiting for it, see awaitAll.*/
+	public Future<?> submitFetch(Runnable loader) {
+		return fetchPool.submit(loader);
+	}
+	
+	private static void runAll(ThreadPoolExecutor pool, Runnable[] loaders) throws IOException {
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>(loaders.length);
+		for (Runnable r: loaders) futures.add(pool.submit(r));
+		awaitAll(futures);
+	}
+	
+	/**Blocks until all of the loaders complete, cancelling the rest if one throws or the wait is interrupted.*/
+	public static void awaitAll(List<Future<?>> futures) throws IOException {
+		try {
+			for (Future<?> f: futures) f.get();
+		} catch (InterruptedException e) {
+			for (Future<?> f: futures) f.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting on the loaders", e);
+		} catch (ExecutionException e) {
+			for (Future<?> f: futures) f.cancel(true);
+			throw new IOException("Loader failed", e.getCause());
+		}
+	}
+	
+	/**Stops the shared thread pools and the index reloader and closes the pooled readers, call when the service is shut down.*/
+	public void shutdown() {
+		if (lookupPool != null) lookupPool.shutdownNow();
+		if (fetchPool != null) fetchPool.shutdownNow();
+		if (readerPool != null) readerPool.close();
+		if (reloader != null) reloader.shutdownNow();
+		if (warmer != null) warmer.shutdownNow();
+	}
+	
+	/**Gauges for the shared thread pools, the tabix reader pool, and the result cache.*/
+	public JSONObject getExecutorStats() {
+		JSONObject jo = new JSONObject();
+		jo.put("lookupPool", getExecutorStats(lookupPool));
+		jo.put("fetchPool", getExecutorStats(fetchPool));
+		jo.put("tabixReaderPool", readerPool.getStats());
+		if (resultCache != null) jo.put("resultCache", resultCache.getStats());
+		jo.put("queryIndexes", getSnapshotStats());
+		return jo;
+	}
+	
+	private synchronized JSONObject getSnapshotStats() {
+		QueryIndexSnapshot current = snapshot;
+		JSONObject jo = new JSONObject();
+		jo.put("generation", current.getGeneration());
+		jo.put("numberQueryIndexes", current.getQueryIndexes().size());
+		jo.put("numberLoaded", current.getNumberLoaded());
+		jo.put("numberDataFiles", current.getNumberIndexedFiles());
+		jo.put("reloads", numberReloads);
+		if (msLastReload != 0) jo.put("lastReload", new Date(msLastReload).toString());
+		return jo;
+	}
+	
+	private static JSONObject getExecutorStats(ThreadPoolExecutor pool) {
+		JSONObject jo = new JSONObject();
+		jo.put("poolSize", pool.getMaximumPoolSize());
+		jo.put("activeThreads", pool.getActiveCount());
+		jo.put("queueDepth", pool.getQueue().size());
+		jo.put("largestPoolSize", pool.getLargestPoolSize());
+		jo.put("completedTasks", pool.getCompletedTaskCount());
+		return jo;
+	}
+	
+	/**Names the pool threads and makes them daemons so they don't hold up the jvm exit.*/
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String namePrefix;
+		private final AtomicInteger count = new AtomicInteger(1);
+		
+		NamedThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+		}
+		
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, namePrefix + count.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+	
 	/**Provides a Query Index Dir or returns null*/
 	public synchronized File getQueryIndexJob() {
 		if (currentQueryBuildJobIndex < numberQueryBuildJobs) return queryIndexDirs.get(currentQueryBuildJobIndex++);
 		return null;
 	}
 	
-	/**Provides a Query Index Dir or returns null*/
-	public synchronized void addQueryIndex(String truncDataPath, SingleQuery singleQuery, int numberDataSources) {
-		queryIndexes.put(truncDataPath, singleQuery);
-		this.numberIndexedFiles+= numberDataSources;
+	/**Adds a SingleQuery to the build in progress.*/
+	public synchronized void addQueryIndex(String truncDataPath, SingleQuery singleQuery) {
+		builtIndexes.put(truncDataPath, singleQuery);
 	}
 	
-	/**Provides a Query Index Dir or returns null*/
-	public synchronized void addAvailableIndexedChromosomes(Set<String> chroms) {
-		availableIndexedChromosomes.addAll(chroms);
+	/**Reserves heap for loading the SingleQuery's index resident, returns false if it won't fit within the budget or the SingleQuery 
+	 * was replaced by a reload, requests still on the old snapshot then search its files.*/
+	public synchronized boolean reserveResidentIndexBytes(SingleQuery sq, long bytes) {
+		if (sq.isReplaced()) return false;
+		if (residentIndexBytesUsed + bytes > residentIndexBytes) return false;
+		residentIndexBytesUsed += bytes;
+		return true;
 	}
-
+	
+	/**Adjusts a reservation to the actual bytes used, or releases it if the index wasn't loaded. Returns false if it's not to be kept
+	 * resident, including when the SingleQuery was replaced while loading since the reload has already released its memory.*/
+	public synchronized boolean adjustResidentIndexBytes(SingleQuery sq, long reserved, long used) {
+		residentIndexBytesUsed -= reserved;
+		if (used == 0 || sq.isReplaced()) return false;
+		residentIndexBytesUsed += used;
+		sq.setResidentBytes(used);
+		numberResidentIndexes++;
+		return true;
+	}
+	
+	/**Releases, direction -1, or takes back, direction 1, the resident memory of the SingleQuerys being replaced.*/
+	private synchronized void changeResidentIndexBytes(ArrayList<SingleQuery> sqs, int direction) {
+		for (SingleQuery sq: sqs) {
+			sq.setReplaced(direction < 0);
+			long bytes = sq.getResidentBytes();
+			if (bytes == 0) continue;
+			residentIndexBytesUsed += direction * bytes;
+			numberResidentIndexes += direction;
+		}
+	}
+	
+	/**Heap held by the resident query indexes.*/
+	public synchronized long getResidentIndexBytesUsed() {
+		return residentIndexBytesUsed;
+	}
+	
+	public boolean isLazyLoad() {
+		return lazyLoad;
+	}
+	
+	public boolean isResidentIndexEnabled() {
+		return residentIndexBytes != 0;
+	}
+	
 	public int getNumCharToSkipForDataDir() {
 		return numCharToSkipForDataDir;
 	}
 
-	/**@return truncated file path: SingleQuery index*/
-	public HashMap<String, SingleQuery> getQueryIndexes() {
-		return queryIndexes;
+	/**Returns the SingleQuerys currently served, hold on to it for the whole of a request.*/
+	public QueryIndexSnapshot getSnapshot() {
+		return snapshot;
 	}
 	
 	public void makeFileHeaderStarts() {
@@ -152,9 +559,6 @@ public class MasterQuery {
 		return jo;
 	}
 
-	public HashSet<String> getAvailableIndexedChromosomes() {
-		return availableIndexedChromosomes;
-	}
 	public boolean isInitialized() {
 		return initialized;
 	}
@@ -166,6 +570,28 @@ public class MasterQuery {
 	public int getNumberThreads() {
 		return numberThreads;
 	}
+	
+	public int getNumberFetchThreads() {
+		return numberFetchThreads;
+	}
+
+	public long getMinSplitBytes() {
+		return minSplitBytes;
+	}
+
+	/**Sets the compressed bytes a data read must span before it's split across the fetch threads, Long.MAX_VALUE to never split.*/
+	public void setMinSplitBytes(long minSplitBytes) {
+		this.minSplitBytes = minSplitBytes;
+	}
+
+	public TabixReaderPool getReaderPool() {
+		return readerPool;
+	}
+	
+	/**Returns null unless enabled.*/
+	public QueryResultCache getResultCache() {
+		return resultCache;
+	}
 
 
 	public String getBuildInfo() {
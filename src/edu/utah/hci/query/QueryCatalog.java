@@ -0,0 +1,112 @@
+package edu.utah.hci.query;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**Binary snapshot of every query index dir's CatalogEntry written in the data dir by the MasterQuery so the next start skips
+ * walking the data tree and parsing each fileInfo.txt.gz, only dirs whose fileInfo.txt.gz stamp changed are parsed again.
+ * The GQueryIndexer deletes it so new index dirs are found.
+ *
+ * Layout, big endian, strings are an int byte length then UTF-8:
+ * magic int, version int, data dir string, numberEntries int, then for each entry:
+ * index dir string relative to the data dir, stamp long, numberChromosomes int, chromosome strings,
+ * numberFileIds int, file path strings by id, an empty string for unused ids.*/
+public class QueryCatalog {
+
+	public static final int MAGIC = 0x47514341; //GQCA
+	public static final int VERSION = 1;
+	public static final String FILE_NAME = ".GQueryCatalog.bin";
+
+	/**Returns index dir : CatalogEntry from the data dir's catalog, or null if there isn't one or it's unreadable or for another data dir.*/
+	public static HashMap<File, CatalogEntry> load(File dataDir) {
+		File file = new File(dataDir, FILE_NAME);
+		if (file.exists() == false) return null;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+			if (readString(buf).equals(dataDir.getCanonicalPath()) == false) return null;
+			int numberEntries = buf.getInt();
+			HashMap<File, CatalogEntry> entries = new HashMap<File, CatalogEntry>(numberEntries * 2);
+			for (int i=0; i< numberEntries; i++) {
+				File indexDir = new File(dataDir, readString(buf));
+				long stamp = buf.getLong();
+				String[] chromosomes = new String[buf.getInt()];
+				for (int j=0; j< chromosomes.length; j++) chromosomes[j] = readString(buf);
+				String[] filePaths = new String[buf.getInt()];
+				for (int j=0; j< filePaths.length; j++) {
+					String s = readString(buf);
+					if (s.length() != 0) filePaths[j] = s;
+				}
+				entries.put(indexDir, new CatalogEntry(indexDir, stamp, chromosomes, filePaths, true));
+			}
+			return entries;
+		} catch (IOException | RuntimeException e) {
+			//truncated or corrupt, it's rebuilt
+			return null;
+		}
+	}
+
+	/**Writes the entries to a unique temp file then moves it over the catalog so readers never see a partial one and concurrent 
+	 * writers, e.g. the CLI and a running service, never publish each other's half written file.*/
+	public static void write(File dataDir, Collection<CatalogEntry> entries) throws IOException {
+		String dataDirPath = dataDir.getCanonicalPath();
+		int skip = dataDir.getPath().length() + 1;
+		Path tmp = Files.createTempFile(dataDir.toPath(), FILE_NAME, ".tmp");
+		boolean published = false;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 65536));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				writeString(out, dataDirPath);
+				out.writeInt(entries.size());
+				for (CatalogEntry e: entries) {
+					writeString(out, e.getIndexDir().getPath().substring(skip));
+					out.writeLong(e.getStamp());
+					out.writeInt(e.getChromosomes().length);
+					for (String c: e.getChromosomes()) writeString(out, c);
+					out.writeInt(e.getFilePaths().length);
+					for (String p: e.getFilePaths()) writeString(out, p == null ? "" : p);
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(tmp, new File(dataDir, FILE_NAME).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			published = true;
+		} finally {
+			if (published == false) Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**Deletes the catalog of the dir and of each of its parents, those above are removed since the dir might be within their data tree.*/
+	public static void delete(File dir) {
+		for (File d = dir; d != null; d = d.getParentFile()) {
+			File f = new File(d, FILE_NAME);
+			if (f.exists()) f.delete();
+		}
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] b = new byte[buf.getInt()];
+		buf.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+}
@@ -3,6 +3,8 @@ package edu.utah.hci.query;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
@@ -32,6 +34,7 @@ public class QueryFilter {
 	private Pattern[] regExDirPathUser = null;
 	private String userName = null;
 	boolean filterOnRegEx = false;
+	private String fileFilterKey = null;
 
 	/**This hash is loaded with the File data sources to return. */
 	private TreeSet<File> dataFilesToReturn = new TreeSet<File>();
@@ -54,7 +57,7 @@ public class QueryFilter {
 	//constructors
 	public QueryFilter(User user, QueryRequest queryRequest, HashMap<String, String> options) throws IOException{
 		this.queryRequest = queryRequest;
-		dirTNameQueryIndexes = queryRequest.getMasterQuery().getQueryIndexes();
+		dirTNameQueryIndexes = queryRequest.getSnapshot().getQueryIndexes();
 		if (user != null) {
 			userName = user.getUserName();
 			regExDirPathUser = user.getRegExOne();
@@ -305,90 +308,116 @@ public class QueryFilter {
 		return jo;
 	}
 
+	/**Appends the settings that change the results, in a fixed order, and the directories the user can see so the
+	 * result cache never serves one user's hits to another who can't see them. Regex order doesn't change matching so they're sorted.*/
+	public void appendResultCacheKey(StringBuilder sb){
+		sb.append("fetchData=").append(fetchData);
+		sb.append(";exclude=").append(excludeDataFromResults);
+		sb.append(";matchVcf=").append(matchVcf);
+		sb.append(";includeHeaders=").append(includeHeaders);
+		sb.append(";bpPadding=").append(bpPadding);
+		sb.append(";matchAll=").append(matchAllDirPathRegEx).append(',').append(matchAllFileNameRegEx).append(',').append(matchAllDataLineRegEx);
+		appendSorted(sb, ";regExDirPath=", regExDirPath);
+		appendSorted(sb, ";regExFileName=", regExFileName);
+		appendSorted(sb, ";regExDataLine=", regExDataLine);
+		appendSorted(sb, ";regExDataLineExclude=", regExDataLineExclude);
+		ArrayList<String> canSee = new ArrayList<String>(truncFilePathsUserCanSee);
+		Collections.sort(canSee);
+		sb.append(";canSee=");
+		for (String s: canSee) sb.append(s).append('\t');
+		sb.append('\n');
+	}
+	
+	private static void appendSorted(StringBuilder sb, String name, Pattern[] ps){
+		if (ps == null) return;
+		String[] s = new String[ps.length];
+		for (int i=0; i< ps.length; i++) s[i] = ps[i].toString();
+		Arrays.sort(s);
+		sb.append(name);
+		for (String x: s) sb.append(x).append('\t');
+	}
+
 	public void addArray(JSONObject jo, String key, @SuppressWarnings("rawtypes") Iterator it){
 		ArrayList<String> sb = new ArrayList<String>();
 		while (it.hasNext()) sb.add(it.next().toString());
 		jo.put(key, sb);
 	}
 
-	/**Filter files to return based on this MQF, these have already been restricted to what they can see*/
-	public JSONObject filterFiles(HashMap<File, ArrayList<TabixDataQuery>> fileTabixQueries){
+	/**Returns the file filtering stats or null if not filtering. The files were already filtered on the dir path and file name regexes
+	 * as the index hits were decoded, see SingleQuery.fetchPermittedFileIds(), these have also been restricted to what they can see.
+	 * @param numberFilesPreFiltering hit by the index lookups before the regexes were applied.*/
+	public JSONObject fetchFileFilteringStats(HashMap<File, ArrayList<TabixDataQuery>> fileTabixQueries, int numberFilesPreFiltering){
+		if (filterOnRegEx == false) return null;
+		//Make json object to track filtering
+		JSONObject stats = new JSONObject();
+		stats.put("filesPreFiltering", numberFilesPreFiltering);
+		stats.put("filesPostFiltering", fileTabixQueries.size());
+		return stats;
+	}
 
-		int numFiles = fileTabixQueries.size();
-		int numToKeep = numFiles;
-		boolean fileFiltering = false;
+	/**Returns the dir path and file name regexes and their match all flags as the key for the masks of permitted file ids cached 
+	 * by each SingleQuery, null if files aren't filtered. Regex order doesn't change matching so they're sorted.*/
+	public String getFileFilterKey() {
+		if (regExDirPath == null && regExFileName == null) return null;
+		if (fileFilterKey == null) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("matchAll=").append(matchAllDirPathRegEx).append(',').append(matchAllFileNameRegEx);
+			appendSorted(sb, ";regExDirPath=", regExDirPath);
+			appendSorted(sb, ";regExFileName=", regExFileName);
+			fileFilterKey = sb.toString();
+		}
+		return fileFilterKey;
+	}
 
-		//filter?
-		if (filterOnRegEx){
-			
-			fileFiltering = true;
-			ArrayList<File> toKeep = new ArrayList<File>();	
-			
-			//for each file
-			for (File f: fileTabixQueries.keySet()){
-				boolean addItPath = true;
-				boolean addItName = true;
-				String tPath = f.toString().substring(numCharToSkipForDataDir);
-				
-				//filter on file path?
-				if (regExDirPath != null) {
-					for (Pattern p: regExDirPath){
+	/**Checks the data file against the dir path and file name regexes, true if it should be searched.*/
+	public boolean isFileToSearch(File f) {
+		if (filterOnRegEx == false) return true;
+		boolean addItPath = true;
+		boolean addItName = true;
+		String tPath = f.toString().substring(numCharToSkipForDataDir);
+		
+		//filter on file path?
+		if (regExDirPath != null) {
+			for (Pattern p: regExDirPath){
+				addItPath = false;
+				boolean match = p.matcher(tPath).matches();
+				//just need one?
+				if (matchAllDirPathRegEx == false && match == true) {
+					addItPath = true;
+					break;
+				}
+				//need all and it doesn't match
+				else if (matchAllDirPathRegEx == true) {
+					if (match == false) {
 						addItPath = false;
-						boolean match = p.matcher(tPath).matches();
-						//just need one?
-						if (matchAllDirPathRegEx == false && match == true) {
-							addItPath = true;
-							break;
-						}
-						//need all and it doesn't match
-						else if (matchAllDirPathRegEx == true) {
-							if (match == false) {
-								addItPath = false;
-								break;
-							}
-							else addItPath = true;
-						}
+						break;
 					}
+					else addItPath = true;
 				}
-				
-				//filter on file name?
-				if (addItPath == true && regExFileName != null) {
-					for (Pattern p: regExFileName){
+			}
+		}
+		
+		//filter on file name?
+		if (addItPath == true && regExFileName != null) {
+			for (Pattern p: regExFileName){
+				addItName = false;
+				boolean match = p.matcher(f.getName()).matches();
+				//just need one?
+				if (matchAllFileNameRegEx == false && match == true) {
+					addItName = true;
+					break;
+				}
+				//need all and it doesn't match
+				else if (matchAllFileNameRegEx == true) {
+					if (match == false) {
 						addItName = false;
-						boolean match = p.matcher(f.getName()).matches();
-						//just need one?
-						if (matchAllFileNameRegEx == false && match == true) {
-							addItName = true;
-							break;
-						}
-						//need all and it doesn't match
-						else if (matchAllFileNameRegEx == true) {
-							if (match == false) {
-								addItName = false;
-								break;
-							}
-							else addItName = true;
-						}
+						break;
 					}
+					else addItName = true;
 				}
-				if (addItPath == true && addItName == true) toKeep.add(f);
 			}
-			
-			//OK toss those not in toKeep
-			fileTabixQueries.keySet().retainAll(toKeep);
-			numToKeep = toKeep.size();
 		}
-
-		//filtering on?
-		if (fileFiltering){
-			//Make json object to track filtering
-			JSONObject stats = new JSONObject();
-			stats.put("filesPreFiltering", numFiles);
-			stats.put("filesPostFiltering", numToKeep);
-			return stats;
-		}
-
-		else return null;
+		return addItPath == true && addItName == true;
 	}
 
 	//getters and setters
@@ -0,0 +1,64 @@
+package edu.utah.hci.query;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**The set of SingleQuerys the MasterQuery is serving. Never modified once built, a reload makes a new one and swaps it in so each
+ * QueryRequest sees the snapshot it started with from start to finish.*/
+public class QueryIndexSnapshot {
+
+	//fields
+	private final HashMap<String, SingleQuery> queryIndexes;
+	private final HashSet<String> availableIndexedChromosomes = new HashSet<String>();
+	//index dir : stamp of its fileInfo.txt.gz when loaded
+	private final HashMap<File, Long> indexStamps;
+	private final long generation;
+
+	/**@param queryIndexes truncated data dir path : SingleQuery*/
+	public QueryIndexSnapshot(HashMap<String, SingleQuery> queryIndexes, HashMap<File, Long> indexStamps, long generation) {
+		this.queryIndexes = queryIndexes;
+		this.indexStamps = indexStamps;
+		this.generation = generation;
+		for (SingleQuery sq: queryIndexes.values()) availableIndexedChromosomes.addAll(sq.getIndexedChromosomes());
+	}
+
+	/**Combines the size and modification time of the index dir's fileInfo.txt.gz, it's replaced when the index is rebuilt.*/
+	public static long fetchIndexStamp(File indexDir) {
+		File info = new File(indexDir, "fileInfo.txt.gz");
+		return 31 * info.lastModified() + info.length();
+	}
+
+	/**@return truncated file path: SingleQuery index*/
+	public HashMap<String, SingleQuery> getQueryIndexes() {
+		return queryIndexes;
+	}
+
+	public HashSet<String> getAvailableIndexedChromosomes() {
+		return availableIndexedChromosomes;
+	}
+
+	public HashMap<File, Long> getIndexStamps() {
+		return indexStamps;
+	}
+
+	/**Goes up by one with each reload.*/
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**Returns the data files of the loaded SingleQuerys, all of them unless lazy.*/
+	public int getNumberIndexedFiles() {
+		int n = 0;
+		for (SingleQuery sq: queryIndexes.values()) {
+			if (sq.isLoaded()) n += sq.getDataSources().getAvailableDataFiles().size();
+		}
+		return n;
+	}
+	
+	public int getNumberLoaded() {
+		int n = 0;
+		for (SingleQuery sq: queryIndexes.values()) if (sq.isLoaded()) n++;
+		return n;
+	}
+}
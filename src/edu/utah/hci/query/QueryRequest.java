@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -23,6 +24,8 @@ public class QueryRequest {
 	//fields
 	private QueryFilter queryFilter; 
 	private MasterQuery masterQuery;
+	//the query indexes served when this request started, used throughout even if reloaded meanwhile
+	private QueryIndexSnapshot snapshot;
 	private File inputFile = null; //might be null if using GET request
 	private String[] bedRegions = null;
 	private String[] vcfRegions = null;
@@ -41,6 +44,13 @@ public class QueryRequest {
 	private JSONObject indexQueryStats = null;
 	private JSONObject indexFileFilteringStats = null;
 	private JSONObject dataRetrievalStats = null;
+	/*Everything in the json results but the querySettings, from the result cache or made once the search completes.*/
+	private JSONObject results = null;
+	private boolean fromResultCache = false;
+	/*Warning about indexed files gone from disk, the only warning cached with the results, the rest depend on each request's input.*/
+	private String missingFilesWarning = null;
+	private static final String MISSING_FILES_WARNING = "missingFilesWarning";
+	private int numberSplitReads = 0;
 
 	/*Contains all the user region TabixQueries split by chromosome. Will be loaded with results.*/
 	private HashMap<String, TabixDataQuery[]> chrTabixQueries = new HashMap<String, TabixDataQuery[]>();
@@ -55,6 +65,7 @@ public class QueryRequest {
 	public QueryRequest(MasterQuery masterQuery, File inputFile, HashMap<String, String> options, User user) throws IOException {
 		this.masterQuery = masterQuery;
 		this.inputFile = inputFile;
+		snapshot = masterQuery.getSnapshot();
 		
 		//create a new file filter and modify it with the input, this parses the user options including the bed/ vcf regions to search
 		queryFilter = new QueryFilter(user, this, options);
@@ -80,22 +91,56 @@ public class QueryRequest {
 			return;
 		}
 		
-		TabixFileRegionIntersector mtfri = new TabixFileRegionIntersector(this, toSearch);
+		//seen before?
+		QueryResultCache resultCache = masterQuery.getResultCache();
+		String resultKey = null;
+		long indexGeneration = snapshot.getGeneration();
+		if (resultCache != null) {
+			resultKey = makeResultCacheKey();
+			results = resultCache.get(resultKey, indexGeneration);
+			if (results != null) {
+				fromResultCache = true;
+				missingFilesWarning = results.optString(MISSING_FILES_WARNING, null);
+				if (missingFilesWarning != null) warningTxtForUser.add(missingFilesWarning);
+				return;
+			}
+		}
+		
+		//do they want to fetch the underlying data (slow)? if so it's fetched for each file as soon as an index lookup finds it
+		TabixDataLineLoader mtdll = null;
+		if (queryFilter.isFetchData()) mtdll = new TabixDataLineLoader(this, masterQuery.getMinSplitBytes());
+		
+		TabixFileRegionIntersector mtfri;
+		try {
+			mtfri = new TabixFileRegionIntersector(this, toSearch, mtdll);
+		} catch (IOException e) {
+			if (mtdll != null) mtdll.cancelFetches();
+			throw e;
+		}
 		indexQueryStats = mtfri.getIndexQueryStats();
+		if (mtdll != null) mtdll.awaitFetches();
 		
-		//filter which files to fetch data, this has already been User regEx filtered
-		indexFileFilteringStats = queryFilter.filterFiles(fileTabixQueries);
+		//files were filtered on the user's regexes as the index hits were decoded
+		indexFileFilteringStats = queryFilter.fetchFileFilteringStats(fileTabixQueries, mtfri.getNumberFilesPreFiltering());
 		
 		//any left?
 		if (fileTabixQueries.size()!=0){
 			
-			//do they want to fetch the underlying data (slow)? 
-			if (queryFilter.isFetchData()) {
-				
-				TabixDataLineLoader mtdll = new TabixDataLineLoader(this);
+			//data fetched?
+			if (mtdll != null) {
 				
 				//make json stats object
 				makeDataRetrievalStats(mtdll);
+				numberSplitReads = mtdll.getNumberSplitReads();
+				lg.debug(mtdll.getNumberLookupJobs()+" data lookups coalesced into "+mtdll.getNumberRangeReads()+" reads, "+mtdll.getNumberStreamedReads()+" streamed, "+mtdll.getNumberSplitReads()+" split");
+				
+				//any indexed files gone since the index was built?
+				if (mtdll.getMissingFiles().size() != 0) {
+					ArrayList<String> missing = new ArrayList<String>();
+					for (File f: mtdll.getMissingFiles()) missing.add(f.toString().substring(masterQuery.getNumCharToSkipForDataDir()));
+					missingFilesWarning = "Skipped "+missing.size()+" indexed data files that no longer exist, re-index: "+missing;
+					warningTxtForUser.add(missingFilesWarning);
+				}
 				
 				
 				//log the results
@@ -106,7 +151,28 @@ public class QueryRequest {
 			else loadTabixQueriesWithFileSources();
 		}
 		else lg.debug("No intersecting files after filtering");
-
+		
+		if (resultCache != null) {
+			results = makeResults();
+			if (errTxtForUser == null) resultCache.put(resultKey, indexGeneration, results);
+		}
+	}
+	
+	/**The filter settings then the regions by chromosome, the regions of each are already sorted so different orders of the same regions match.*/
+	private String makeResultCacheKey() {
+		StringBuilder sb = new StringBuilder();
+		queryFilter.appendResultCacheKey(sb);
+		ArrayList<String> chrs = new ArrayList<String>(chrTabixQueries.keySet());
+		Collections.sort(chrs);
+		for (String chr: chrs) {
+			for (TabixDataQuery tq: chrTabixQueries.get(chr)) {
+				sb.append(tq.getInterbaseCoordinates());
+				sb.append('\t');
+				sb.append(tq.getInput());
+				sb.append('\n');
+			}
+		}
+		return sb.toString();
 	}
 
 	public void makeDataRetrievalStats(TabixDataLineLoader mtdll){
@@ -235,7 +301,7 @@ public class QueryRequest {
 		}
 		
 		//check chrom
-		else if (masterQuery.getAvailableIndexedChromosomes().contains(t[0]) == false){
+		else if (snapshot.getAvailableIndexedChromosomes().contains(t[0]) == false){
 			String message = "WARNING: Failed to find a chromosome for '"+t[0]+ "' excluding from search -> "+bedLine;
 			warningTxtForUser.add(message);
 			lg.debug(message);
@@ -275,7 +341,7 @@ public class QueryRequest {
 		}
 		
 		//check chrom
-		else if (masterQuery.getAvailableIndexedChromosomes().contains(t[0]) == false){
+		else if (snapshot.getAvailableIndexedChromosomes().contains(t[0]) == false){
 			warningTxtForUser.add("WARNING: Failed to find a chromosome for '"+t[0]+ "' excluding from search -> "+vcfLine);
 			lg.debug(warningTxtForUser);
 		}
@@ -425,22 +491,39 @@ public class QueryRequest {
 	public JSONObject getJsonResults() {
 		JSONObject jo = new JSONObject();
 		jo.put("querySettings", queryFilter.getCurrentSettings(inputFile));
-		if (queryOptions != null) jo.put("queryOptions", queryOptions);
-		else {
-			if (indexQueryStats != null) jo.put("fileIndexQueryStats", indexQueryStats);
-			if (indexFileFilteringStats != null) jo.put("fileIndexFilteringStats", indexFileFilteringStats);
-			if (dataRetrievalStats != null) jo.put("dataRetrievalStats", dataRetrievalStats);
-			if (chrTabixQueries != null) appendQueryResults(jo);
-			if (queryFilter.includeHeaders() && fileTabixQueries.size()!=0) jo.put("dataHitFileHeaders", getFileHeaders());
+		if (queryOptions != null) {
+			jo.put("queryOptions", queryOptions);
+			if (warningTxtForUser.size() !=0) jo.put("warningMessages", warningTxtForUser);
+			return jo;
+		}
+		if (results == null) results = makeResults();
+		for (String key: results.keySet()) {
+			if (key.equals(MISSING_FILES_WARNING) == false) jo.put(key, results.get(key));
 		}
 		if (warningTxtForUser.size() !=0) jo.put("warningMessages", warningTxtForUser);
+		if (fromResultCache) jo.put("fromResultCache", true);
+		return jo;
+	}
+	
+	private JSONObject makeResults() {
+		JSONObject jo = new JSONObject();
+		if (indexQueryStats != null) jo.put("fileIndexQueryStats", indexQueryStats);
+		if (indexFileFilteringStats != null) jo.put("fileIndexFilteringStats", indexFileFilteringStats);
+		if (dataRetrievalStats != null) jo.put("dataRetrievalStats", dataRetrievalStats);
+		if (chrTabixQueries != null) appendQueryResults(jo);
+		if (queryFilter.includeHeaders() && fileTabixQueries.size()!=0) jo.put("dataHitFileHeaders", getFileHeaders());
+		//the other warnings come from this request's input so they're added in getJsonResults, not cached
+		if (missingFilesWarning != null) jo.put(MISSING_FILES_WARNING, missingFilesWarning);
 		return jo;
 	}
 	
 	private ArrayList<JSONObject> getFileHeaders() {
 		try {
 			ArrayList<JSONObject> al = new ArrayList<JSONObject>();
-			for (File f: fileTabixQueries.keySet()) al.add(masterQuery.fetchFileHeader(f));
+			for (File f: fileTabixQueries.keySet()) {
+				//missing files are reported with the data retrieval
+				if (f.exists()) al.add(masterQuery.fetchFileHeader(f));
+			}
 			return al;
 		} catch (Exception e) {
 			errTxtForUser= "Problem fetching file headers for -> "+ fileTabixQueries.keySet()+" contact admin! ";
@@ -649,10 +732,19 @@ public class QueryRequest {
 		return warningTxtForUser;
 	}
 
+	/**Returns the number of data reads split across the fetch threads.*/
+	public int getNumberSplitReads() {
+		return numberSplitReads;
+	}
+
 	public QueryFilter getQueryFilter() {
 		return queryFilter;
 	}
 
+	public QueryIndexSnapshot getSnapshot() {
+		return snapshot;
+	}
+
 	public MasterQuery getMasterQuery() {
 		return masterQuery;
 	}
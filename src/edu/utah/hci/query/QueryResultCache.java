@@ -0,0 +1,97 @@
+package edu.utah.hci.query;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**Holds the results of recent QueryRequests so repeated identical queries, e.g. from dashboards, skip the index and data file searches.
+ * Keyed by the canonical request from the QueryRequest and QueryFilter. Bounded by the approximate heap bytes of the results, the
+ * least recently used are dropped when over. Every entry is cleared when rebuilt indexes are reloaded into a new QueryIndexSnapshot
+ * generation. Thread safe.*/
+public class QueryResultCache {
+
+	public static final int DEFAULT_MAX_MB = 128;
+
+	//fields
+	private long maxBytes;
+	private long bytes = 0;
+	private long generation = 0;
+	private LinkedHashMap<String, CachedResult> results = new LinkedHashMap<String, CachedResult>(64, 0.75f, true);
+
+	//stats
+	private long numberHits = 0;
+	private long numberMisses = 0;
+	private long numberEvicted = 0;
+	private long numberInvalidations = 0;
+
+	public QueryResultCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**Returns the cached results for the key or null. Don't modify them, they're shared.*/
+	public synchronized JSONObject get(String key, long indexGeneration) {
+		checkGeneration(indexGeneration);
+		CachedResult cr = results.get(key);
+		if (cr == null) {
+			numberMisses++;
+			return null;
+		}
+		numberHits++;
+		return cr.results;
+	}
+
+	/**Adds the results, ignored if the indexes were reloaded while they were being found or if they'd take more than a quarter of the budget.*/
+	public synchronized void put(String key, long indexGeneration, JSONObject json) {
+		if (indexGeneration < generation) return;
+		checkGeneration(indexGeneration);
+		//strings are two bytes a char
+		long size = 2l * (key.length() + json.toString().length());
+		if (size > maxBytes / 4) return;
+		CachedResult old = results.put(key, new CachedResult(json, size));
+		if (old != null) bytes -= old.bytes;
+		bytes += size;
+		Iterator<Map.Entry<String, CachedResult>> it = results.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			CachedResult eldest = it.next().getValue();
+			it.remove();
+			bytes -= eldest.bytes;
+			numberEvicted++;
+		}
+	}
+
+	private void checkGeneration(long indexGeneration) {
+		if (indexGeneration <= generation) return;
+		generation = indexGeneration;
+		if (results.size() != 0) {
+			results.clear();
+			bytes = 0;
+			numberInvalidations++;
+		}
+	}
+
+	public synchronized JSONObject getStats() {
+		JSONObject jo = new JSONObject();
+		jo.put("maxMB", maxBytes / 1048576);
+		jo.put("cachedResults", results.size());
+		jo.put("cachedBytes", bytes);
+		jo.put("hits", numberHits);
+		jo.put("misses", numberMisses);
+		jo.put("hitRatio", numberHits + numberMisses == 0 ? 0 : (double)numberHits / (double)(numberHits + numberMisses));
+		jo.put("evicted", numberEvicted);
+		jo.put("invalidations", numberInvalidations);
+		jo.put("indexGeneration", generation);
+		return jo;
+	}
+
+	private static class CachedResult {
+		private JSONObject results;
+		private long bytes;
+
+		CachedResult(JSONObject results, long bytes) {
+			this.results = results;
+			this.bytes = bytes;
+		}
+	}
+}
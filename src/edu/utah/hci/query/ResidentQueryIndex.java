@@ -0,0 +1,146 @@
+package edu.utah.hci.query;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import edu.utah.hci.misc.RoaringBitmap;
+import edu.utah.hci.misc.Util;
+
+/**A chromosome's query index held on the heap in primitive arrays, the sorted interval starts and stops, the file id set of each,
+ * and the serialized RoaringBitmap for each set. Loaded from the chrXX.qi.bin or for older indexes the chrXX.qi.bed.gz.
+ * Lookups are a binary search with no disk io or decompression. Thread safe once loaded.*/
+public class ResidentQueryIndex implements ChromIndexLookup {
+
+	//fields
+	private int numberIntervals;
+	private int[] starts;
+	private int[] stops;
+	private int[] setIndexes;
+	private int[] setOffsets;
+	private ByteBuffer setData;
+
+	private ResidentQueryIndex() {}
+
+	/**Reads a binary query index, see BinaryQueryIndex for the layout.*/
+	public static ResidentQueryIndex loadBinary(File bin) throws IOException {
+		ResidentQueryIndex ri = new ResidentQueryIndex();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(bin), 65536));
+		try {
+			if (in.readInt() != BinaryQueryIndex.MAGIC) throw new IOException("Not a binary query index "+bin);
+			int version = in.readInt();
+			if (version != BinaryQueryIndex.VERSION) throw new IOException("Unsupported binary query index version "+version+" in "+bin);
+			int n = in.readInt();
+			int numberSets = in.readInt();
+			ri.numberIntervals = n;
+			ri.starts = readInts(in, n);
+			ri.stops = readInts(in, n);
+			ri.setIndexes = readInts(in, n);
+			ri.setOffsets = new int[numberSets+1];
+			for (int i=0; i<= numberSets; i++) {
+				long offset = in.readLong();
+				if (offset > Integer.MAX_VALUE) throw new IOException("Too many file id sets to load "+bin);
+				ri.setOffsets[i] = (int)offset;
+			}
+			byte[] data = new byte[ri.setOffsets[numberSets]];
+			in.readFully(data);
+			ri.setData = ByteBuffer.wrap(data);
+		} finally {
+			in.close();
+		}
+		return ri;
+	}
+
+	private static int[] readInts(DataInputStream in, int n) throws IOException {
+		int[] values = new int[n];
+		for (int i=0; i< n; i++) values[i] = in.readInt();
+		return values;
+	}
+
+	/**Parses a chrXX.qi.bed.gz, each distinct comma delimited id set is converted to a RoaringBitmap once.*/
+	public static ResidentQueryIndex loadBed(File bed) throws IOException {
+		ResidentQueryIndex ri = new ResidentQueryIndex();
+		int[] starts = new int[1024];
+		int[] stops = new int[1024];
+		int[] setIndexes = new int[1024];
+		int n = 0;
+		HashMap<String, Integer> setIds = new HashMap<String, Integer>();
+		int[] setOffsets = new int[1024];
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream setOut = new DataOutputStream(bytes);
+
+		BufferedReader in = Util.fetchBufferedReader(bed);
+		try {
+			String line;
+			String[] fields;
+			while ((line = in.readLine()) != null) {
+				//chr0 start1 stop2 ids3
+				fields = Util.TAB.split(line);
+				if (n == starts.length) {
+					starts = Arrays.copyOf(starts, n * 2);
+					stops = Arrays.copyOf(stops, n * 2);
+					setIndexes = Arrays.copyOf(setIndexes, n * 2);
+				}
+				starts[n] = Integer.parseInt(fields[1]);
+				stops[n] = Integer.parseInt(fields[2]);
+				Integer set = setIds.get(fields[3]);
+				if (set == null) {
+					set = setIds.size();
+					setIds.put(fields[3], set);
+					RoaringBitmap rb = new RoaringBitmap();
+					for (String id: Util.COMMA.split(fields[3])) rb.add(Integer.parseInt(id));
+					if (set + 1 >= setOffsets.length) setOffsets = Arrays.copyOf(setOffsets, setOffsets.length * 2);
+					setOffsets[set] = setOut.size();
+					rb.serialize(setOut);
+					setOffsets[set+1] = setOut.size();
+				}
+				setIndexes[n++] = set;
+			}
+		} finally {
+			in.close();
+		}
+		setOut.close();
+		ri.numberIntervals = n;
+		ri.starts = Arrays.copyOf(starts, n);
+		ri.stops = Arrays.copyOf(stops, n);
+		ri.setIndexes = Arrays.copyOf(setIndexes, n);
+		ri.setOffsets = Arrays.copyOf(setOffsets, setIds.size() + 1);
+		ri.setData = ByteBuffer.wrap(bytes.toByteArray());
+		return ri;
+	}
+
+	public void or(int start, int stop, RoaringBitmap fileIds) {
+		int lastSet = -1;
+		for (int i = findFirstIntersecting(start); i< numberIntervals && starts[i] < stop; i++) {
+			int set = setIndexes[i];
+			if (set == lastSet) continue;
+			lastSet = set;
+			fileIds.or(setData, setOffsets[set]);
+		}
+	}
+
+	/**Returns the index of the first interval whose stop is past the start, or numberIntervals if none.*/
+	private int findFirstIntersecting(int start) {
+		int low = 0;
+		int high = numberIntervals;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (stops[mid] <= start) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**Returns the approximate heap bytes used.*/
+	public long getBytes() {
+		return 12l * numberIntervals + 4l * setOffsets.length + setData.capacity() + 100;
+	}
+}
@@ -1,9 +1,14 @@
 package edu.utah.hci.query;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import edu.utah.hci.misc.RoaringBitmap;
 import edu.utah.hci.misc.Util;
 
 /** Tool for intersecting regions with a collection of vcf and bed data. */
@@ -17,18 +22,33 @@ public class SingleQuery {
 	//internal
 	private static final Logger lg = LogManager.getLogger(SingleQuery.class);
 	private SingleDataSources dataSources;
-	private SingleQueryIndex queryIndex;
+	//null until loaded when the MasterQuery is lazy
+	private volatile SingleQueryIndex queryIndex = null;
+	private CatalogEntry catalogEntry;
+	private HashSet<String> indexedChromosomes = new HashSet<String>();
 	private boolean initialized = false;
+	//set by the MasterQuery under its lock, the heap counted against its resident budget and whether a reload replaced this
+	private long residentBytes = 0;
+	private boolean replaced = false;
+	//QueryFilter file filter key : ids of the files it permits, least recently used first
+	private LinkedHashMap<String, RoaringBitmap> permittedFileIds = new LinkedHashMap<String, RoaringBitmap>(16, 0.75f, true);
+	public static final int MAX_PERMITTED_FILE_ID_MASKS = 32;
 
 	//constructors	
-	public SingleQuery (File indexDir, MasterQuery masterQuery) {
+	/**@param catalogEntry from the QueryCatalog, or null to parse it from the index dir.*/
+	public SingleQuery (File indexDir, MasterQuery masterQuery, CatalogEntry catalogEntry) {
 		try {
 			this.dataDir = indexDir.getParentFile();
 			this.indexDir = indexDir;
 			this.masterQuery = masterQuery;
 			
-			//make object that loads the interval trees and can handle tree queries
-			queryIndex = new SingleQueryIndex(this);
+			//the file table and chromosomes, cheap so always done
+			if (catalogEntry == null) catalogEntry = CatalogEntry.parse(indexDir);
+			this.catalogEntry = catalogEntry;
+			for (String chr: catalogEntry.getChromosomes()) indexedChromosomes.add(chr);
+			
+			//make object that loads the interval trees and can handle tree queries, or leave it for the first use
+			if (masterQuery.isLazyLoad() == false) queryIndex = new SingleQueryIndex(this);
 			
 			initialized = true;
 		} catch (Exception e) {
@@ -36,13 +56,84 @@ public class SingleQuery {
 		}
 	}
 
+	/**Loads the file table and chromosome indexes if not yet loaded, only needed when the MasterQuery is lazy.*/
+	public void load() throws IOException {
+		if (queryIndex != null) return;
+		synchronized (this) {
+			if (queryIndex == null) {
+				long start = System.currentTimeMillis();
+				queryIndex = new SingleQueryIndex(this);
+				lg.debug("Loaded "+indexDir+" in "+(System.currentTimeMillis()-start)+" ms");
+			}
+		}
+	}
+	
+	/**Returns the ids of the data files passing the dir path and file name regexes of the QueryFilter, or null if it doesn't filter files.
+	 * Each file is matched once per regex set, the mask is cached for later requests with the same regexes and dropped with this 
+	 * SingleQuery when its index is reloaded. The mask is shared so must not be modified.*/
+	public RoaringBitmap fetchPermittedFileIds(QueryFilter queryFilter) throws IOException {
+		String key = queryFilter.getFileFilterKey();
+		if (key == null) return null;
+		synchronized (permittedFileIds) {
+			RoaringBitmap ids = permittedFileIds.get(key);
+			if (ids != null) return ids;
+		}
+		//build outside the lock, two requests may race on the same key, the last one in is kept
+		File[] fileId2File = getQueryIndex().getFileId2File();
+		RoaringBitmap ids = new RoaringBitmap();
+		for (int i=0; i< fileId2File.length; i++) {
+			if (fileId2File[i] != null && queryFilter.isFileToSearch(fileId2File[i])) ids.add(i);
+		}
+		synchronized (permittedFileIds) {
+			permittedFileIds.put(key, ids);
+			Iterator<String> it = permittedFileIds.keySet().iterator();
+			while (permittedFileIds.size() > MAX_PERMITTED_FILE_ID_MASKS) {
+				it.next();
+				it.remove();
+			}
+		}
+		return ids;
+	}
+
+	public boolean isLoaded() {
+		return queryIndex != null;
+	}
+	
+	/**Returns the heap used by the index when held in memory, 0 if not loaded or searched from the files.*/
+	public long getResidentBytes() {
+		synchronized (masterQuery) {
+			return residentBytes;
+		}
+	}
+	void setResidentBytes(long residentBytes) {
+		this.residentBytes = residentBytes;
+	}
+	boolean isReplaced() {
+		return replaced;
+	}
+	void setReplaced(boolean replaced) {
+		this.replaced = replaced;
+	}
+	
+	/**Returns the chromosomes with a chrXX.qi.bed.gz in the index dir, available without loading.*/
+	public HashSet<String> getIndexedChromosomes() {
+		return indexedChromosomes;
+	}
+
+	public CatalogEntry getCatalogEntry() {
+		return catalogEntry;
+	}
+
+	/**Null until loaded.*/
 	public SingleDataSources getDataSources() {
 		return dataSources;
 	}
 	public void setDataSources(SingleDataSources dataSources) {
 		this.dataSources = dataSources;
 	}
-	public SingleQueryIndex getQueryIndex() {
+	/**Loads the index on first use if lazy.*/
+	public SingleQueryIndex getQueryIndex() throws IOException {
+		load();
 		return queryIndex;
 	}
 	public boolean isInitialized() {
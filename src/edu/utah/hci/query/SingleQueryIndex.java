@@ -16,35 +16,42 @@ public class SingleQueryIndex {
 	private SingleDataSources dataSources;
 	private File[] fileId2File = null;
 	private HashMap<String, File> chrTabixTree = null;
+	private HashMap<String, ChromIndexLookup> chrIndexLookup = null;
 	private static final Logger lg = LogManager.getLogger(SingleQueryIndex.class);
 	
+	//estimated heap bytes per chrXX.qi.bed.gz byte when loaded resident
+	private static final int BED_GZ_TO_HEAP = 3;
+	
 	//constructor
 	public SingleQueryIndex(SingleQuery query) throws IOException{
 		
-		//load the file id hash, truncated file name with it's id
-		HashMap<String, Integer> fileStringId = loadFileInfo(query);
+		//the file paths by id and the chromosomes, from the fileInfo.txt.gz or the catalog
+		CatalogEntry entry = query.getCatalogEntry();
+		
+		buildTabixSearchTree(query.getIndexDir(), entry.getChromosomes());
 		
-		buildTabixSearchTree(query.getIndexDir());
+		//load the whole index into memory?
+		if (query.getMasterQuery().isResidentIndexEnabled()) loadResident(query);
 		
 		//create a container to hold all the File info for per request filtering
 		dataSources = new SingleDataSources(query.getDataDir());
 		
 		//for each file
-		int max = findMaxIntValue (fileStringId);		
-		fileId2File = new File[max+1];
+		String[] paths = entry.getFilePaths();
+		fileId2File = new File[paths.length];
 		File dataDirParent = query.getMasterQuery().getDataDir().getParentFile();	
+		//when lazy or from the catalog this is left for the fetch, a stat per file is slow on network storage
+		boolean checkExists = query.getMasterQuery().isLazyLoad() == false && entry.isFromCatalog() == false;
 		
-		for (String path: fileStringId.keySet()){		
-			
-			File f = new File (dataDirParent, path);
+		for (int id = 0; id < paths.length; id++){		
+			if (paths[id] == null) continue;
+			File f = new File (dataDirParent, paths[id]);
 			//does it exist?
-			if (f.exists() == false){
+			if (checkExists && f.exists() == false){
 				String m = "Failed to find this data file despite presence in index, aborting! "+f;
 				lg.fatal(m);
 				throw new IOException (m);
 			}
-			int id = fileStringId.get(path);
-			
 			fileId2File[id] = f;
 			dataSources.addFileToFilter(f);
 		}
@@ -56,53 +63,29 @@ public class SingleQueryIndex {
 		query.setDataSources(dataSources);
 	}
 	
-	private HashMap<String, Integer> loadFileInfo(SingleQuery query) throws IOException {
-		File info = new File(query.getIndexDir(), "fileInfo.txt.gz");
-		if (info.exists() == false){
-			String m = "ERROR: cannot find the fileInfo.txt.gz file in the indexDir "+query.getIndexDir()+", aborting.";
-			lg.fatal(m);
-			throw new IOException (m);
-		}
-		
-		HashMap<String, Integer> fileStringId = new HashMap<String, Integer>();
-		
-		BufferedReader in = Util.fetchBufferedReader(info);
-		//skip first header line
-		in.readLine();
-		String line;
-		String[] fields;
-		while ((line = in.readLine()) != null) {
-			//Id0 Size1 LastMod2 Name3
-			fields = Util.TAB.split(line);
-			fileStringId.put(fields[3], Integer.parseInt(fields[0]));
-		}
-		in.close();
-		
-		return fileStringId;
-	}
-
-	/**Find the maxium int value in the hashmap*/
-	public static int findMaxIntValue(HashMap<String, Integer> hash) {
-		int max = 0;
-		for (Integer i: hash.values()) {
-			if (i> max) max = i;
-		}
-		return max;
-	}
-	
-	/**This builds lookups using tabix .*/
-	private void buildTabixSearchTree(File indexDir) {
+	/**This builds lookups using tabix, or the binary chrXX.qi.bin when present and not older than the chrXX.qi.bed.gz.*/
+	private void buildTabixSearchTree(File indexDir, String[] chromosomes) {
 		try {
-			File[] chrBed = Util.extractFiles(indexDir, ".qi.bed.gz");
 			chrTabixTree = new HashMap<String, File>();
-			//for each file
-			for (File f: chrBed){
+			chrIndexLookup = new HashMap<String, ChromIndexLookup>();
+			//for each chrXX.qi.bed.gz file
+			for (String chr: chromosomes){
+				File f = new File(indexDir, chr+".qi.bed.gz");
 				//look for tbi's
 				File tbi = new File(f.getParentFile(), f.getName()+".tbi");
 				if (tbi.exists() == false) throw new IOException("Failed to find the tabix xxx.tbi index for "+f);
 				//save chrom, tabix file
-				String chr = f.getName().replace(".qi.bed.gz", "");
 				chrTabixTree.put(chr, f);
+				
+				//binary index? old indexes won't have one
+				File bin = BinaryQueryIndex.fetchBinaryFile(indexDir, chr);
+				if (bin.exists() && bin.lastModified() >= f.lastModified()) {
+					try {
+						chrIndexLookup.put(chr, new BinaryQueryIndex(bin));
+					} catch (Exception e) {
+						lg.warn("Failed to load the binary query index, using tabix instead, "+bin+" "+e.getMessage());
+					}
+				}
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -110,6 +93,37 @@ public class SingleQueryIndex {
 		}
 	}
 
+	/**Loads every chromosome index into memory if the directory fits in the MasterQuery's resident budget, otherwise they're left
+	 * on disk. The memory is estimated from the chrXX.qi.bin sizes, or the chrXX.qi.bed.gz for older indexes, then corrected.*/
+	private void loadResident(SingleQuery query) {
+		MasterQuery mq = query.getMasterQuery();
+		long estimate = 0;
+		for (String chr: chrTabixTree.keySet()) {
+			if (chrIndexLookup.get(chr) instanceof BinaryQueryIndex) estimate += BinaryQueryIndex.fetchBinaryFile(query.getIndexDir(), chr).length();
+			else estimate += chrTabixTree.get(chr).length() * BED_GZ_TO_HEAP;
+		}
+		if (mq.reserveResidentIndexBytes(query, estimate) == false) {
+			lg.info("Resident memory budget exceeded or replaced by a reload, searching the index files for "+query.getIndexDir());
+			return;
+		}
+		long used = 0;
+		HashMap<String, ChromIndexLookup> resident = new HashMap<String, ChromIndexLookup>();
+		try {
+			for (String chr: chrTabixTree.keySet()) {
+				ResidentQueryIndex ri;
+				if (chrIndexLookup.get(chr) instanceof BinaryQueryIndex) ri = ResidentQueryIndex.loadBinary(BinaryQueryIndex.fetchBinaryFile(query.getIndexDir(), chr));
+				else ri = ResidentQueryIndex.loadBed(chrTabixTree.get(chr));
+				resident.put(chr, ri);
+				used += ri.getBytes();
+			}
+		} catch (Exception e) {
+			used = 0;
+			lg.warn("Failed to load the query index into memory, searching the index files instead, "+query.getIndexDir()+" "+e.getMessage());
+		} finally {
+			if (mq.adjustResidentIndexBytes(query, estimate, used)) chrIndexLookup = resident;
+		}
+	}
+
 	/**Given a String of ints delimited by something, will parse or return null.*/
 	public static int[] stringToInts(String s, Pattern pat){
 		String[] tokens = pat.split(s);
@@ -128,6 +142,12 @@ public class SingleQueryIndex {
 		return chrTabixTree;
 	}
 
+	/**Returns the chr indexes that can be searched without tabix, memory mapped or resident. 
+	 * These are a subset of those in the chrTabixTree.*/
+	public HashMap<String, ChromIndexLookup> getChrIndexLookup() {
+		return chrIndexLookup;
+	}
+
 	public File[] getFileId2File() {
 		return fileId2File;
 	}
@@ -11,7 +11,6 @@ public class SingleQueryIndexBuilder implements Runnable{
 	//fields
 	private boolean failed = false;
 	private MasterQuery masterQuery;
-	private int numCharToSkipForDataDir = 0;
 
 	private File indexDir = null;
 
@@ -20,21 +19,19 @@ public class SingleQueryIndexBuilder implements Runnable{
 	
 	public SingleQueryIndexBuilder (MasterQuery masterQuery ) throws IOException{
 		this.masterQuery = masterQuery;	
-		numCharToSkipForDataDir = masterQuery.getNumCharToSkipForDataDir();
 	}
 	
 	public void run() {	
 		try {
 			//get next File dir containing a gquery index, returns null if no more work
 			while ((indexDir = masterQuery.getQueryIndexJob()) != null){ 
-				String trunPath = indexDir.getParent().substring(numCharToSkipForDataDir)+"/";
+				String trunPath = masterQuery.fetchTruncPath(indexDir);
 				lg.info("Building : "+ trunPath);
 				
-				SingleQuery sq = new SingleQuery(indexDir, masterQuery);
-				masterQuery.addAvailableIndexedChromosomes(sq.getQueryIndex().getChrTabixTree().keySet());
+				SingleQuery sq = new SingleQuery(indexDir, masterQuery, masterQuery.fetchCatalogEntry(indexDir));
 				if (sq.isInitialized() == false) throw new IOException("ERROR: failed to load "+indexDir);
 				
-				masterQuery.addQueryIndex(trunPath, sq, sq.getDataSources().getAvailableDataFiles().size());
+				masterQuery.addQueryIndex(trunPath, sq);
 			}
 
 		} catch (Exception e) {
@@ -0,0 +1,22 @@
+package edu.utah.hci.tabix;
+
+/**An inflated BGZF block and the size of its compressed form, for finding the next block. Not modified once created so it's
+ * shared between readers through the BgzfBlockCache.*/
+public class BgzfBlock {
+
+	private final byte[] data;
+	private final int compressedSize;
+
+	public BgzfBlock(byte[] data, int compressedSize) {
+		this.data = data;
+		this.compressedSize = compressedSize;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getCompressedSize() {
+		return compressedSize;
+	}
+}
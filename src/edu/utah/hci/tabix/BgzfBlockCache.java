@@ -0,0 +1,170 @@
+package edu.utah.hci.tabix;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**Holds inflated BGZF blocks from the data files and query indexes so the blocks of hot regions, e.g. popular genes, aren't
+ * read and inflated again for every query. Keyed by the file, its size and modification time, and the block's compressed address.
+ *
+ * Split into segments, each with its own lock and share of the byte budget. Each segment uses the 2Q policy so a large scan
+ * doesn't flush the hot blocks: new blocks go into a FIFO, when pushed out only their key is remembered, and blocks requested
+ * again while remembered go into the main LRU queue. Thread safe.*/
+public class BgzfBlockCache {
+
+	public static final int NUMBER_SEGMENTS = 16;
+	//share of a segment's bytes for first time blocks
+	private static final double FIFO_FRACTION = 0.25;
+	//bytes of each cached block beyond its data
+	private static final int BLOCK_OVERHEAD = 120;
+
+	//fields
+	private long maxBytes;
+	private Segment[] segments = new Segment[NUMBER_SEGMENTS];
+
+	public BgzfBlockCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		for (int i=0; i< NUMBER_SEGMENTS; i++) segments[i] = new Segment(maxBytes / NUMBER_SEGMENTS);
+	}
+
+	/**Returns the cached block or null.*/
+	public BgzfBlock get(BlockKey key) {
+		return segmentFor(key).get(key);
+	}
+
+	public void put(BlockKey key, BgzfBlock block) {
+		segmentFor(key).put(key, block);
+	}
+
+	private Segment segmentFor(BlockKey key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return segments[h & (NUMBER_SEGMENTS - 1)];
+	}
+
+	public JSONObject getStats() {
+		long hits = 0;
+		long misses = 0;
+		long evicted = 0;
+		long bytes = 0;
+		long blocks = 0;
+		for (Segment s: segments) {
+			synchronized (s) {
+				hits += s.numberHits;
+				misses += s.numberMisses;
+				evicted += s.numberEvicted;
+				bytes += s.fifoBytes + s.mainBytes;
+				blocks += s.fifo.size() + s.main.size();
+			}
+		}
+		JSONObject jo = new JSONObject();
+		jo.put("maxMB", maxBytes / 1048576);
+		jo.put("cachedBlocks", blocks);
+		jo.put("cachedBytes", bytes);
+		jo.put("hits", hits);
+		jo.put("misses", misses);
+		jo.put("hitRatio", hits + misses == 0 ? 0 : (double)hits / (double)(hits + misses));
+		jo.put("evicted", evicted);
+		return jo;
+	}
+
+	private static class Segment {
+		private long maxBytes;
+		private long maxFifoBytes;
+		private int maxGhosts;
+		private LinkedHashMap<BlockKey, BgzfBlock> fifo = new LinkedHashMap<BlockKey, BgzfBlock>();
+		private LinkedHashMap<BlockKey, BgzfBlock> main = new LinkedHashMap<BlockKey, BgzfBlock>(16, 0.75f, true);
+		private LinkedHashSet<BlockKey> ghosts = new LinkedHashSet<BlockKey>();
+		private long fifoBytes = 0;
+		private long mainBytes = 0;
+		private long numberHits = 0;
+		private long numberMisses = 0;
+		private long numberEvicted = 0;
+
+		Segment(long maxBytes) {
+			this.maxBytes = maxBytes;
+			maxFifoBytes = (long)(maxBytes * FIFO_FRACTION);
+			//remember about half as many keys as the blocks that fit
+			maxGhosts = (int)Math.max(16, maxBytes / 65536 / 2);
+		}
+
+		synchronized BgzfBlock get(BlockKey key) {
+			//touching moves it to the back of the main LRU
+			BgzfBlock b = main.get(key);
+			if (b == null) b = fifo.get(key);
+			if (b == null) numberMisses++;
+			else numberHits++;
+			return b;
+		}
+
+		synchronized void put(BlockKey key, BgzfBlock block) {
+			if (main.containsKey(key) || fifo.containsKey(key)) return;
+			long size = bytes(block);
+			if (size > maxBytes) return;
+			if (ghosts.remove(key)) {
+				main.put(key, block);
+				mainBytes += size;
+			}
+			else {
+				fifo.put(key, block);
+				fifoBytes += size;
+			}
+			while (fifoBytes + mainBytes > maxBytes) {
+				if (fifoBytes > maxFifoBytes || main.size() == 0) {
+					Iterator<Map.Entry<BlockKey, BgzfBlock>> it = fifo.entrySet().iterator();
+					Map.Entry<BlockKey, BgzfBlock> e = it.next();
+					it.remove();
+					fifoBytes -= bytes(e.getValue());
+					ghosts.add(e.getKey());
+					if (ghosts.size() > maxGhosts) {
+						Iterator<BlockKey> g = ghosts.iterator();
+						g.next();
+						g.remove();
+					}
+				}
+				else {
+					Iterator<Map.Entry<BlockKey, BgzfBlock>> it = main.entrySet().iterator();
+					Map.Entry<BlockKey, BgzfBlock> e = it.next();
+					it.remove();
+					mainBytes -= bytes(e.getValue());
+				}
+				numberEvicted++;
+			}
+		}
+
+		private static long bytes(BgzfBlock block) {
+			return block.getData().length + BLOCK_OVERHEAD;
+		}
+	}
+
+	/**Identifies a block by its file, the file's size and modification time so replaced files miss, and its compressed address.*/
+	public static class BlockKey {
+		private final String path;
+		private final long version;
+		private final long address;
+		private final int hash;
+
+		public BlockKey(String path, long version, long address) {
+			this.path = path;
+			this.version = version;
+			this.address = address;
+			int h = path.hashCode();
+			h = 31 * h + Long.hashCode(version);
+			h = 31 * h + Long.hashCode(address);
+			hash = h;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (o instanceof BlockKey == false) return false;
+			BlockKey other = (BlockKey)o;
+			return other.address == address && other.version == version && other.path.equals(path);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package edu.utah.hci.tabix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**Reads a bgzipped file by virtual file offset, like the htsjdk BlockCompressedInputStream, but takes its inflated blocks from
+ * the shared BgzfBlockCache when present and adds those it reads. With a null cache every block is read from the file.
+ * Not thread safe, each holds an open file.*/
+public class BgzfReader {
+
+	private static final int MAX_BLOCK_SIZE = 65536;
+	private static final int HEADER_SIZE = 18;
+
+	//fields
+	private File file;
+	private BgzfBlockCache cache;
+	private String path;
+	private long version;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private long fileLength;
+	private ByteBuffer compressed = ByteBuffer.allocate(MAX_BLOCK_SIZE);
+	private Inflater inflater = new Inflater(true);
+
+	//current block
+	private BgzfBlock block = null;
+	private byte[] data = null;
+	private long blockAddress = 0;
+	private int offset = 0;
+
+	public BgzfReader(File file, BgzfBlockCache cache) throws IOException {
+		this.file = file;
+		this.cache = cache;
+		path = file.getCanonicalPath();
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		fileLength = channel.size();
+		//replaced files have a new key so stale blocks are never served
+		version = fileLength * 31 + file.lastModified();
+	}
+
+	/**Moves to the virtual file offset, the compressed block address in the upper 48 bits and the offset into the inflated block in the lower 16.*/
+	public void seek(long virtualOffset) throws IOException {
+		long address = virtualOffset >>> 16;
+		int blockOffset = (int)(virtualOffset & 0xFFFF);
+		if (loadBlock(address) == false) throw new IOException("Failed to seek to "+virtualOffset+", past the end of "+file);
+		if (blockOffset > data.length) throw new IOException("Failed to seek to "+virtualOffset+", offset past the end of the block in "+file);
+		offset = blockOffset;
+	}
+
+	/**Returns the virtual offset of the next byte, at the end of a block this is the start of the following block as with htsjdk.*/
+	public long getFilePointer() {
+		if (block == null) return 0;
+		if (offset > 0 && offset == data.length) return (blockAddress + block.getCompressedSize()) << 16;
+		return (blockAddress << 16) | offset;
+	}
+
+	/**Returns the next byte or -1 at the end of the file.*/
+	public int read() throws IOException {
+		while (block == null || offset >= data.length) {
+			long next = block == null ? 0 : blockAddress + block.getCompressedSize();
+			if (loadBlock(next) == false) return -1;
+		}
+		return data[offset++] & 0xFF;
+	}
+
+	/**Appends the bytes up to the next line feed as single byte chars, returns false if the end of the file was hit first.*/
+	public boolean readLine(StringBuilder sb) throws IOException {
+		while (true) {
+			while (block == null || offset >= data.length) {
+				long next = block == null ? 0 : blockAddress + block.getCompressedSize();
+				if (loadBlock(next) == false) return false;
+			}
+			int i = offset;
+			int n = data.length;
+			while (i < n) {
+				byte b = data[i++];
+				if (b == '\n') {
+					offset = i;
+					return true;
+				}
+				sb.append((char)(b & 0xFF));
+			}
+			offset = n;
+		}
+	}
+
+	/**Makes the block at the compressed address current, returns false if at or past the end of the file.*/
+	private boolean loadBlock(long address) throws IOException {
+		if (address >= fileLength) return false;
+		BgzfBlock b = null;
+		BgzfBlockCache.BlockKey key = null;
+		if (cache != null) {
+			key = new BgzfBlockCache.BlockKey(path, version, address);
+			b = cache.get(key);
+		}
+		if (b == null) {
+			b = readBlock(address);
+			if (cache != null) cache.put(key, b);
+		}
+		block = b;
+		data = b.getData();
+		blockAddress = address;
+		offset = 0;
+		return true;
+	}
+
+	/**Reads and inflates one BGZF block, see the SAM spec section 4.1.*/
+	private BgzfBlock readBlock(long address) throws IOException {
+		compressed.clear();
+		compressed.limit((int)Math.min(MAX_BLOCK_SIZE, fileLength - address));
+		while (compressed.hasRemaining()) {
+			int n = channel.read(compressed, address + compressed.position());
+			if (n < 0) break;
+		}
+		byte[] buf = compressed.array();
+		int available = compressed.position();
+		if (available < HEADER_SIZE || buf[0] != 31 || (buf[1] & 0xFF) != 139 || buf[2] != 8 || (buf[3] & 4) == 0) {
+			throw new IOException("Not a BGZF block at "+address+" in "+file);
+		}
+		//find the BC subfield with the block size
+		int xlen = unsignedShort(buf, 10);
+		int blockSize = -1;
+		int x = 12;
+		while (x + 4 <= 12 + xlen && x + 4 <= available) {
+			int slen = unsignedShort(buf, x + 2);
+			if (buf[x] == 66 && buf[x+1] == 67 && slen == 2) {
+				blockSize = unsignedShort(buf, x + 4) + 1;
+				break;
+			}
+			x += 4 + slen;
+		}
+		if (blockSize < 0 || blockSize > available) throw new IOException("Truncated or malformed BGZF block at "+address+" in "+file);
+		int inflatedSize = (buf[blockSize-4] & 0xFF) | (buf[blockSize-3] & 0xFF) << 8 | (buf[blockSize-2] & 0xFF) << 16 | (buf[blockSize-1] & 0xFF) << 24;
+		byte[] inflated = new byte[inflatedSize];
+		inflater.reset();
+		inflater.setInput(buf, 12 + xlen, blockSize - xlen - 20);
+		try {
+			int n = 0;
+			while (n < inflatedSize) {
+				int i = inflater.inflate(inflated, n, inflatedSize - n);
+				if (i == 0 && (inflater.finished() || inflater.needsInput())) break;
+				n += i;
+			}
+			if (n != inflatedSize) throw new IOException("Inflated "+n+" bytes, expected "+inflatedSize+", from the BGZF block at "+address+" in "+file);
+		} catch (DataFormatException e) {
+			throw new IOException("Failed to inflate the BGZF block at "+address+" in "+file, e);
+		}
+		return new BgzfBlock(inflated, blockSize);
+	}
+
+	private static int unsignedShort(byte[] buf, int i) {
+		return (buf[i] & 0xFF) | (buf[i+1] & 0xFF) << 8;
+	}
+
+	public void close() {
+		inflater.end();
+		try {
+			raf.close();
+		} catch (IOException e) {}
+	}
+}
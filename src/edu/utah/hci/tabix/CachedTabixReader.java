@@ -0,0 +1,188 @@
+package edu.utah.hci.tabix;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+/**Reads the records of a bgzipped data file that intersect a region using a shared ParsedTabixIndex rather than decoding the
+ * tbi for each reader. Returns the same records as the htsjdk TabixReader. Blocks are read through the BgzfBlockCache when
+ * given one. Not thread safe, each holds an open file.*/
+public class CachedTabixReader {
+
+	//fields
+	private File dataFile;
+	private ParsedTabixIndex index;
+	private BgzfReader in;
+	private StringBuilder line = new StringBuilder(1000);
+	private int preset;
+	private int type;
+
+	public CachedTabixReader(File dataFile, ParsedTabixIndex index) throws IOException {
+		this(dataFile, index, null);
+	}
+
+	/**@param blockCache shared inflated blocks, null to read every block from the file, e.g. for whole file scans.*/
+	public CachedTabixReader(File dataFile, ParsedTabixIndex index, BgzfBlockCache blockCache) throws IOException {
+		this.dataFile = dataFile;
+		this.index = index;
+		preset = index.getPreset();
+		type = preset & 0xffff;
+		in = new BgzfReader(dataFile, blockCache);
+	}
+
+	/**Returns an iterator over the records intersecting the interbase region, empty if the chromosome isn't present.*/
+	public Iterator query(String chr, int start, int stop) {
+		return new Iterator(chr, index.fetchChunks(index.fetchTid(chr), start, stop), start, stop);
+	}
+
+	/**Returns an iterator over the records intersecting the one based chr:start-stop region.*/
+	public Iterator query(String region) {
+		int colon = region.indexOf(':');
+		int hyphen = region.indexOf('-');
+		String chr = colon >= 0 ? region.substring(0, colon) : region;
+		int start = colon >= 0 ? Integer.parseInt(region.substring(colon+1, hyphen >= 0 ? hyphen : region.length())) - 1 : 0;
+		int stop = hyphen >= 0 ? Integer.parseInt(region.substring(hyphen+1)) : Integer.MAX_VALUE;
+		return query(chr, start, stop);
+	}
+
+	public Set<String> getChromosomes() {
+		return index.getChromosomes();
+	}
+
+	public File getDataFile() {
+		return dataFile;
+	}
+
+	public void close() {
+		in.close();
+	}
+
+	/**Reads a line as single byte chars like the htsjdk TabixReader, returns null at the end of the file, as it does for a
+	 * last line without a line feed.*/
+	private String readLine() throws IOException {
+		line.setLength(0);
+		if (in.readLine(line) == false) return null;
+		return line.toString();
+	}
+
+	public class Iterator {
+		private String chr;
+		private long[] chunks;
+		private int beg;
+		private int end;
+		private int i = -1;
+		private long currentOffset = 0;
+		private boolean eof;
+		//interbase coordinates of the last parsed record
+		private boolean sameChr;
+		private int recordBeg;
+		private int recordEnd;
+
+		private Iterator(String chr, long[] chunks, int beg, int end) {
+			this.chr = chr;
+			this.chunks = chunks;
+			this.beg = beg;
+			this.end = end;
+			eof = chunks == null;
+		}
+
+		/**Returns the next intersecting record or null when done.*/
+		public String next() throws IOException {
+			if (eof) return null;
+			while (true) {
+				//jump to the next chunk?
+				if (currentOffset == 0 || currentOffset >= chunks[2 * i + 1]) {
+					if (2 * (i + 1) >= chunks.length) break;
+					//seek unless adjacent
+					if (i < 0 || chunks[2 * i + 1] != chunks[2 * (i + 1)]) {
+						in.seek(chunks[2 * (i + 1)]);
+						currentOffset = in.getFilePointer();
+					}
+					i++;
+				}
+				String s = readLine();
+				if (s == null) break;
+				currentOffset = in.getFilePointer();
+				if (s.length() == 0 || s.charAt(0) == index.getMetaCharacter()) continue;
+				parseInterval(s);
+				if (sameChr == false || recordBeg >= end) break;
+				if (recordEnd > beg && recordBeg < end) return s;
+			}
+			eof = true;
+			return null;
+		}
+
+		/**Returns the interbase start of the record last returned by next().*/
+		public int getRecordBeg() {
+			return recordBeg;
+		}
+
+		/**Returns the interbase end of the record last returned by next().*/
+		public int getRecordEnd() {
+			return recordEnd;
+		}
+
+		/**Sets the chromosome match and interbase coordinates of the record as the htsjdk TabixReader does.*/
+		private void parseInterval(String s) {
+			sameChr = false;
+			recordBeg = 0;
+			recordEnd = 0;
+			int col = 0;
+			int start = 0;
+			int stop;
+			while (true) {
+				stop = s.indexOf('\t', start);
+				col++;
+				String field = stop == -1 ? s.substring(start) : s.substring(start, stop);
+				if (col == index.getSequenceColumn()) sameChr = field.equals(chr);
+				else if (col == index.getStartColumn()) {
+					recordBeg = recordEnd = Integer.parseInt(field);
+					if ((preset & ParsedTabixIndex.ZERO_BASED) != 0) recordEnd++;
+					else recordBeg--;
+					if (recordBeg < 0) recordBeg = 0;
+					if (recordEnd < 1) recordEnd = 1;
+				}
+				//generic
+				else if (type == 0) {
+					if (col == index.getEndColumn()) recordEnd = Integer.parseInt(field);
+				}
+				//sam, the cigar
+				else if (type == 1) {
+					if (col == 6) {
+						int length = 0;
+						int last = 0;
+						for (int j=0; j< field.length(); j++) {
+							char c = field.charAt(j);
+							if (c > '9') {
+								if (c == 'M' || c == 'D' || c == 'N') length += Integer.parseInt(field.substring(last, j));
+								last = j + 1;
+							}
+						}
+						recordEnd = recordBeg + length;
+					}
+				}
+				//vcf, the ref length or the INFO END
+				else if (type == 2) {
+					if (col == 4) {
+						if (field.isEmpty() == false) recordEnd = recordBeg + field.length();
+					}
+					else if (col == 8) {
+						int endOffset = -1;
+						int x = field.indexOf("END=");
+						if (x == 0) endOffset = 4;
+						else if (x > 0) {
+							x = field.indexOf(";END=");
+							if (x >= 0) endOffset = x + 5;
+						}
+						if (endOffset > 0) {
+							x = field.indexOf(';', endOffset);
+							recordEnd = Integer.parseInt(x > endOffset ? field.substring(endOffset, x) : field.substring(endOffset));
+						}
+					}
+				}
+				if (stop == -1) break;
+				start = stop + 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package edu.utah.hci.tabix;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Set;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+
+/**A decoded xxx.gz.tbi tabix index, the file format, chromosome names, and for each chromosome the bins with their chunks of
+ * virtual file offsets and the linear index. Immutable so one instance is shared by all the readers of a file, see TabixIndexCache.
+ * The chunk lookup follows the htsjdk TabixReader so the same blocks are read.*/
+public class ParsedTabixIndex {
+
+	private static final int MAX_BIN = 37450;
+	private static final int LINEAR_SHIFT = 14;
+	//the preset flag for zero based, half open starts, e.g. bed
+	public static final int ZERO_BASED = 0x10000;
+
+	//fields
+	private final File tbiFile;
+	private final long tbiLength;
+	private final long tbiLastModified;
+	private final int preset;
+	private final int sequenceColumn;
+	private final int startColumn;
+	private final int endColumn;
+	private final char metaCharacter;
+	private final int numberHeaderLines;
+	private final String[] names;
+	private final HashMap<String, Integer> nameToTid;
+	private final Set<String> chromosomes;
+	//per chromosome, sorted bin numbers and their chunks as start stop virtual offset pairs
+	private final int[][] binNumbers;
+	private final long[][][] binChunks;
+	private final long[][] linearIndex;
+	private final long bytes;
+
+	/**Decodes the tbi, stats it first so a file replaced while reading looks out of date.*/
+	public ParsedTabixIndex(File tbiFile) throws IOException {
+		this.tbiFile = tbiFile;
+		tbiLength = tbiFile.length();
+		tbiLastModified = tbiFile.lastModified();
+		long size = 200;
+		DataInputStream in = new DataInputStream(new BlockCompressedInputStream(tbiFile));
+		try {
+			byte[] magic = new byte[4];
+			in.readFully(magic);
+			if (magic[0] != 'T' || magic[1] != 'B' || magic[2] != 'I' || magic[3] != 1) throw new IOException("Not a tabix index "+tbiFile);
+			int numberRefs = readInt(in);
+			preset = readInt(in);
+			sequenceColumn = readInt(in);
+			startColumn = readInt(in);
+			endColumn = readInt(in);
+			metaCharacter = (char)readInt(in);
+			numberHeaderLines = readInt(in);
+
+			//null terminated names
+			byte[] nameBytes = new byte[readInt(in)];
+			in.readFully(nameBytes);
+			names = new String[numberRefs];
+			nameToTid = new HashMap<String, Integer>();
+			int start = 0;
+			int tid = 0;
+			for (int i=0; i< nameBytes.length && tid < numberRefs; i++) {
+				if (nameBytes[i] != 0) continue;
+				names[tid] = new String(nameBytes, start, i - start);
+				nameToTid.put(names[tid], tid);
+				size += 60 + 2 * names[tid].length();
+				tid++;
+				start = i + 1;
+			}
+			chromosomes = Collections.unmodifiableSet(nameToTid.keySet());
+
+			binNumbers = new int[numberRefs][];
+			binChunks = new long[numberRefs][][];
+			linearIndex = new long[numberRefs][];
+			for (int r=0; r< numberRefs; r++) {
+				int numberBins = readInt(in);
+				long[][] bins = new long[numberBins][];
+				for (int b=0; b< numberBins; b++) {
+					int bin = readInt(in);
+					long[] chunks = new long[2 * readInt(in) + 1];
+					//bin number up front so they can be sorted together
+					chunks[0] = bin;
+					for (int c=1; c< chunks.length; c++) chunks[c] = readLong(in);
+					bins[b] = chunks;
+					size += 8 * chunks.length + 24;
+				}
+				Arrays.sort(bins, new Comparator<long[]>() {
+					public int compare(long[] a, long[] b) {
+						return Long.compare(a[0], b[0]);
+					}
+				});
+				binNumbers[r] = new int[numberBins];
+				binChunks[r] = new long[numberBins][];
+				for (int b=0; b< numberBins; b++) {
+					binNumbers[r][b] = (int)bins[b][0];
+					binChunks[r][b] = Arrays.copyOfRange(bins[b], 1, bins[b].length);
+				}
+				long[] linear = new long[readInt(in)];
+				for (int l=0; l< linear.length; l++) linear[l] = readLong(in);
+				linearIndex[r] = linear;
+				size += 8 * linear.length + 4 * numberBins + 50;
+			}
+		} finally {
+			in.close();
+		}
+		bytes = size;
+	}
+
+	/**Returns the merged start stop virtual offset pairs of the chunks that may hold records intersecting the interbase region,
+	 * or null if none.*/
+	public long[] fetchChunks(int tid, int beg, int end) {
+		if (tid < 0 || beg < 0 || end <= 0 || tid >= names.length) return null;
+		int[] bins = new int[MAX_BIN];
+		int numberBins = reg2bins(beg, end, bins);
+		long[] linear = linearIndex[tid];
+		long minOffset = 0;
+		if (linear.length > 0) minOffset = (beg >> LINEAR_SHIFT) >= linear.length ? linear[linear.length-1] : linear[beg >> LINEAR_SHIFT];
+
+		//collect the chunks that end past the min offset
+		int n = 0;
+		long[][] chunks = null;
+		for (int i=0; i< numberBins; i++) {
+			int index = Arrays.binarySearch(binNumbers[tid], bins[i]);
+			if (index < 0) continue;
+			long[] pairs = binChunks[tid][index];
+			if (chunks == null) chunks = new long[16][];
+			for (int c=0; c< pairs.length; c+=2) {
+				if (pairs[c+1] <= minOffset) continue;
+				if (n == chunks.length) chunks = Arrays.copyOf(chunks, n * 2);
+				chunks[n++] = new long[]{pairs[c], pairs[c+1]};
+			}
+		}
+		if (n == 0) return null;
+		Arrays.sort(chunks, 0, n, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				return Long.compare(a[0], b[0]);
+			}
+		});
+		//drop chunks contained in the prior
+		int l = 0;
+		for (int i=1; i< n; i++) {
+			if (chunks[l][1] < chunks[i][1]) {
+				l++;
+				chunks[l][0] = chunks[i][0];
+				chunks[l][1] = chunks[i][1];
+			}
+		}
+		n = l + 1;
+		//trim overlaps
+		for (int i=1; i< n; i++) if (chunks[i-1][1] >= chunks[i][0]) chunks[i-1][1] = chunks[i][0];
+		//merge those in the same bgzf block
+		l = 0;
+		for (int i=1; i< n; i++) {
+			if ((chunks[l][1] >> 16) == (chunks[i][0] >> 16)) chunks[l][1] = chunks[i][1];
+			else {
+				l++;
+				chunks[l][0] = chunks[i][0];
+				chunks[l][1] = chunks[i][1];
+			}
+		}
+		n = l + 1;
+		long[] merged = new long[2 * n];
+		for (int i=0; i< n; i++) {
+			merged[2 * i] = chunks[i][0];
+			merged[2 * i + 1] = chunks[i][1];
+		}
+		return merged;
+	}
+
+	/**Returns the number of compressed bytes in the data file spanned by the chunks for the interbase region, 0 if the chromosome isn't present.*/
+	public long fetchCompressedBytes(String chr, int beg, int end) {
+		long[] chunks = fetchChunks(fetchTid(chr), beg, end);
+		if (chunks == null) return 0;
+		long total = 0;
+		//virtual file offsets, the compressed block address is in the upper 48 bits
+		for (int i=0; i< chunks.length; i+=2) total += (chunks[i+1] >>> 16) - (chunks[i] >>> 16) + 1;
+		return total;
+	}
+
+	/**Returns up to parts - 1 increasing positions that split the interbase region into pieces with about the same compressed bytes.
+	 * Each is the start of a 16kb linear index window so each piece begins at its own bgzf block. Empty if it can't be split.*/
+	public int[] fetchSplitPositions(String chr, int beg, int end, int parts) {
+		int tid = fetchTid(chr);
+		if (tid < 0 || parts < 2 || beg < 0 || end <= beg) return new int[0];
+		long[] linear = linearIndex[tid];
+		int first = beg >> LINEAR_SHIFT;
+		int last = Math.min((end - 1) >> LINEAR_SHIFT, linear.length - 1);
+		if (last - first < 2) return new int[0];
+		//compressed block addresses of the first and last windows
+		long startAddress = linear[first] >>> 16;
+		long span = (linear[last] >>> 16) - startAddress;
+		if (span <= 0) return new int[0];
+		int[] positions = new int[parts - 1];
+		int n = 0;
+		int w = first + 1;
+		for (int k=1; k< parts; k++) {
+			long target = startAddress + span * k / parts;
+			while (w < last && (linear[w] >>> 16) < target) w++;
+			if (w >= last) break;
+			//a window starting in the same block as the prior split adds nothing
+			if (n != 0 && (linear[w] >>> 16) == (linear[positions[n-1] >> LINEAR_SHIFT] >>> 16)) continue;
+			positions[n++] = w << LINEAR_SHIFT;
+			w++;
+		}
+		return Arrays.copyOf(positions, n);
+	}
+
+	private static int reg2bins(int beg, int end, int[] list) {
+		int i = 0;
+		if (beg >= end) return 0;
+		if (end >= 1 << 29) end = 1 << 29;
+		--end;
+		list[i++] = 0;
+		for (int k = 1 + (beg >> 26); k <= 1 + (end >> 26); ++k) list[i++] = k;
+		for (int k = 9 + (beg >> 23); k <= 9 + (end >> 23); ++k) list[i++] = k;
+		for (int k = 73 + (beg >> 20); k <= 73 + (end >> 20); ++k) list[i++] = k;
+		for (int k = 585 + (beg >> 17); k <= 585 + (end >> 17); ++k) list[i++] = k;
+		for (int k = 4681 + (beg >> 14); k <= 4681 + (end >> 14); ++k) list[i++] = k;
+		return i;
+	}
+
+	//tbi ints and longs are little endian
+	private static int readInt(DataInputStream in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	}
+
+	private static long readLong(DataInputStream in) throws IOException {
+		return Long.reverseBytes(in.readLong());
+	}
+
+	/**Returns true if the tbi still has the size and modification time it had when decoded.*/
+	public boolean isCurrent() {
+		return tbiFile.length() == tbiLength && tbiFile.lastModified() == tbiLastModified;
+	}
+
+	/**Returns the chromosome's index or -1 if not present.*/
+	public int fetchTid(String chr) {
+		Integer tid = nameToTid.get(chr);
+		if (tid == null) return -1;
+		return tid;
+	}
+
+	public Set<String> getChromosomes() {
+		return chromosomes;
+	}
+
+	public int getPreset() {
+		return preset;
+	}
+
+	/**One based column of the chromosome.*/
+	public int getSequenceColumn() {
+		return sequenceColumn;
+	}
+
+	/**One based column of the start position.*/
+	public int getStartColumn() {
+		return startColumn;
+	}
+
+	/**One based column of the end position, 0 if none.*/
+	public int getEndColumn() {
+		return endColumn;
+	}
+
+	public char getMetaCharacter() {
+		return metaCharacter;
+	}
+
+	public int getNumberHeaderLines() {
+		return numberHeaderLines;
+	}
+
+	/**Approximate heap bytes used.*/
+	public long getBytes() {
+		return bytes;
+	}
+
+	public File getTbiFile() {
+		return tbiFile;
+	}
+}
@@ -0,0 +1,47 @@
+package edu.utah.hci.tabix;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+/**A CachedTabixReader checked out of the TabixReaderPool along with the size and modification time of its file when opened.
+ * Only one thread uses it at a time.*/
+public class PooledTabixReader {
+
+	//fields
+	private File file;
+	private CachedTabixReader reader;
+	private ParsedTabixIndex index;
+	private long length;
+	private long lastModified;
+
+	PooledTabixReader(File file, TabixIndexCache indexCache, BgzfBlockCache blockCache) throws IOException {
+		this.file = file;
+		//stat before opening so a file replaced while opening is caught on the next checkout
+		length = file.length();
+		lastModified = file.lastModified();
+		index = indexCache.fetch(file);
+		reader = new CachedTabixReader(file, index, blockCache);
+	}
+
+	/**Returns true if the file and its tbi still have the size and modification time they had when opened.*/
+	boolean isCurrent() {
+		return file.length() == length && file.lastModified() == lastModified && index.isCurrent();
+	}
+
+	void close() {
+		reader.close();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public CachedTabixReader getReader() {
+		return reader;
+	}
+
+	public Set<String> getChromosomes() {
+		return reader.getChromosomes();
+	}
+}
@@ -12,18 +12,17 @@ import org.apache.logging.log4j.Logger;
 
 import edu.utah.hci.misc.Util;
 import edu.utah.hci.query.QueryFilter;
-import htsjdk.tribble.readers.TabixReader;
 
 public class SingleTabixDataLoader implements Runnable{
 
 	//fields
 	private boolean failed = false;
 	private TabixDataLineLoader tabixDataLineLoader;
+	private ArrayList<TabixDataLineLookupJob> reads;
 	private TabixDataLineLookupJob tc = null;
-	private TabixDataQuery tq = null;
 	private File tabixFile = new File("");
-	private TabixReader reader = null;
-	private Set<String> chromosomes = null;
+	private TabixReaderPool readerPool;
+	private PooledTabixReader reader = null;
 	
 	private Pattern[] regExDataLine = null;
 	private Pattern[] regExDataLineExclude = null;
@@ -37,8 +36,11 @@ public class SingleTabixDataLoader implements Runnable{
 	
 
 	
-	public SingleTabixDataLoader (TabixDataLineLoader tabixDataLineLoader, QueryFilter queryFilter ) throws IOException{
+	/**@param reads of one data file, in position order.*/
+	public SingleTabixDataLoader (TabixDataLineLoader tabixDataLineLoader, QueryFilter queryFilter, TabixReaderPool readerPool, ArrayList<TabixDataLineLookupJob> reads) {
 		this.tabixDataLineLoader = tabixDataLineLoader;
+		this.readerPool = readerPool;
+		this.reads = reads;
 		
 		//data line filter params
 		regExDataLine = queryFilter.getRegExDataLine(); //may be null
@@ -49,66 +51,100 @@ public class SingleTabixDataLoader implements Runnable{
 	
 	public void run() {	
 		try {
-			//get next TabixLookupJob, returns null if no more work
-			while ((tc = tabixDataLineLoader.getTabixLookupJob()) != null){ 
+			for (int r=0; r< reads.size(); r++){ 
+				tc = reads.get(r);
 				
-				//Different data file? Create new TabixReader?
+				//Different data file? Swap the pooled TabixReader
 				File dataFile = tc.getDataFile();
 				if (dataFile.equals(tabixFile) == false) {
 					tabixFile = dataFile;
-					if (reader != null) reader.close();
-					reader = new TabixReader(tabixFile.toString());
-					chromosomes = reader.getChromosomes();
+					readerPool.checkIn(reader);
+					reader = null;
+					//lazily loaded indexes don't check their data files exist until now
+					if (tabixFile.exists() == false) {
+						tabixDataLineLoader.addMissingFile(tabixFile);
+						continue;
+					}
+					reader = readerPool.checkOut(tabixFile);
 				}
+				if (reader == null) continue;
 
-				//get the TabixQuery and attempt to get an iterator
-				tq = tc.getTabixDataQuery();
-				TabixReader.Iterator it = fetchIterator();
-				if (it == null) continue;
-
+				//attempt to get an iterator over the coalesced region of the TabixQuerys, null if the chromosome isn't present
+				CachedTabixReader.Iterator it = fetchIterator();
 
-				String hit = null;
-				boolean dataFound = false;
-				ArrayList<String> al = new ArrayList<String>();
-				
+				//the queries sorted by start, with their hits
+				ArrayList<TabixDataQuery> tqs = tc.getTabixDataQueries();
+				int numQueries = tqs.size();
+				boolean[] dataFound = new boolean[numQueries];
+				ArrayList<ArrayList<String>> al = new ArrayList<ArrayList<String>>(numQueries);
+				for (int i=0; i< numQueries; i++) al.add(new ArrayList<String>());
 				//VCF? check that the vcf pos, ref, alt is the same, only one of the alts need match
-				if (matchVcf && tabixFile.getName().endsWith(".vcf.gz")){
-					while ((hit = it.next()) != null) {
-						dataFound = true;
-						//pass data line regex?
-						if (passRegExData(hit)){
-							String[] t = Util.TAB.split(hit);
-							//pass vcf match?
-							if (tq.compareVcf(t[1], t[3], Util.COMMA.split(t[4]))) al.add(hit);
+				boolean checkVcf = matchVcf && tabixFile.getName().endsWith(".vcf.gz");
+				
+				//merge join the records, in start order, against a window of the queries that might still intersect one
+				int[] active = new int[numQueries];
+				int numActive = 0;
+				int next = 0;
+				String hit = null;
+				while (it != null && (hit = it.next()) != null) {
+					int beg = it.getRecordBeg();
+					int end = it.getRecordEnd();
+					//spans the split of a large read? then it's in the prior part
+					if (beg < tc.getMinRecordBeg()) continue;
+					//queries starting before the record ends join the window
+					while (next < numQueries && tqs.get(next).getStart() < end) active[numActive++] = next++;
+					//pass data line regex? the same for each query so only checked once
+					int passRegEx = -1;
+					String[] t = null;
+					//hand the record to each query it intersects, as a tabix query of that region alone would
+					int kept = 0;
+					for (int a=0; a< numActive; a++) {
+						int i = active[a];
+						TabixDataQuery tq = tqs.get(i);
+						//ends before this record so before all that follow
+						if (tq.getStop() <= beg) continue;
+						active[kept++] = i;
+						//pulled in by a longer record
+						if (tq.getStart() >= end) continue;
+						dataFound[i] = true;
+						if (passRegEx == -1) passRegEx = passRegExData(hit) ? 1 : 0;
+						if (passRegEx == 0) continue;
+						//pass vcf match?
+						if (checkVcf) {
+							if (t == null) t = Util.TAB.split(hit);
+							if (tq.compareVcf(t[1], t[3], Util.COMMA.split(t[4])) == false) continue;
 						}
+						al.get(i).add(hit);
 					}
+					numActive = kept;
 				}
-				//nope add everything
-				else {					
-					while ((hit = it.next()) != null) {
-						dataFound = true;
-						//pass data line regex?
-						if (passRegExData(hit))al.add(hit);
-					}
-				}
-				if (dataFound) queriesWithData.add(tq.getInterbaseCoordinates());
 				
-				// anything to save?
-				if (al.size()!=0) {
-					tq.addResults(tabixFile, al);
-					queriesWithDataThatPassRegEx.add(tq.getInterbaseCoordinates());
+				SplitReadResults split = tc.getSplitResults();
+				for (int i=0; i< numQueries; i++) {
+					TabixDataQuery tq = tqs.get(i);
+					if (dataFound[i]) queriesWithData.add(tq.getInterbaseCoordinates());
+					// anything to save? those of a split read are saved in order once all its parts are done
+					if (al.get(i).size()!=0) {
+						if (split == null) tq.addResults(tabixFile, al.get(i));
+						queriesWithDataThatPassRegEx.add(tq.getInterbaseCoordinates());
+					}
 				}
+				if (split != null) split.complete(tc.getPart(), al);
 			}
 
-			//close the last reader
-			if (reader != null) reader.close();
-
 			//update the query stats for all the processed jobs
 			tabixDataLineLoader.updateQueryStats(queriesWithData, queriesWithDataThatPassRegEx);
 
 		} catch (IOException e) {
 			failed = true;
-			lg.error("Error: searching "+tabixFile+" for "+tq.getTabixCoordinates() +"\n"+e.toString()+"\n"+e.fillInStackTrace());
+			String coor = tc == null ? "" : tc.getTabixCoordinates();
+			lg.error("Error: searching "+tabixFile+" for "+coor +"\n"+e.toString()+"\n"+e.fillInStackTrace());
+			//might be mid read, don't reuse it
+			readerPool.discard(reader);
+			reader = null;
+		} finally {
+			//return the last reader
+			readerPool.checkIn(reader);
 		}
 	}
 	
@@ -155,13 +191,14 @@ public class SingleTabixDataLoader implements Runnable{
 
 	/**Use to try to fetch an iterator without then with 'chr' prepended to the coordinates.
 	 * Returns null if not found*/
-	private TabixReader.Iterator fetchIterator(){
+	private CachedTabixReader.Iterator fetchIterator(){
 		//look for the chromosome
 		String chr = null;
-		if (chromosomes.contains(tq.getChr())) chr = tq.getChr();
-		if (chromosomes.contains("chr"+tq.getChr()))chr = "chr"+tq.getChr();
+		Set<String> chromosomes = reader.getChromosomes();
+		if (chromosomes.contains(tc.getChr())) chr = tc.getChr();
+		if (chromosomes.contains("chr"+tc.getChr()))chr = "chr"+tc.getChr();
 		if (chr == null) return null;
-		return reader.query(chr, tq.getStart(), tq.getStop());
+		return reader.getReader().query(chr, tc.getStart(), tc.getStop());
 	}
 
 	public boolean isFailed() {
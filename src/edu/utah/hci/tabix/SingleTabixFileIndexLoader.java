@@ -2,12 +2,16 @@ package edu.utah.hci.tabix;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import edu.utah.hci.misc.RoaringBitmap;
 import edu.utah.hci.misc.Util;
-import htsjdk.tribble.readers.TabixReader;
+import edu.utah.hci.query.SingleQueryIndex;
 
 public class SingleTabixFileIndexLoader implements Runnable{
 
@@ -16,80 +20,168 @@ public class SingleTabixFileIndexLoader implements Runnable{
 	private TabixFileRegionIntersector intersector;
 	private TabixIndexFileLookupJob tc = null;
 	private File tabixFile = new File("");
-	private TabixReader reader = null;
-	private HashSet<Integer> fileIds = new HashSet<Integer>();
-	private TabixDataQuery tq = null;
+	private TabixReaderPool readerPool;
+	private PooledTabixReader reader = null;
+	private RoaringBitmap fileIds = new RoaringBitmap();
 	private HashSet<String> numberLookupJobsWithFileHits = new HashSet<String>();
+	//when filtering files, the ids hit before the regexes were applied by each SingleQuery's fileId2File
+	private IdentityHashMap<File[], RoaringBitmap> fileIdsPreFiltering = null;
+	//when fetching data, the queries of the current job hit in each data file, in start order, handed on once the job completes
+	private TabixDataLineLoader dataLineLoader;
+	private LinkedHashMap<File, ArrayList<TabixDataQuery>> fileHits = new LinkedHashMap<File, ArrayList<TabixDataQuery>>();
+	
+	//for the merge join of the batch's regions with the index intervals
+	private int[] active = new int[64];
+	private RoaringBitmap[] regionFileIds = new RoaringBitmap[64];
 	
 	private static final Logger lg = LogManager.getLogger(SingleTabixFileIndexLoader.class);
 	
 
 	
-	public SingleTabixFileIndexLoader (TabixFileRegionIntersector intersector ) throws IOException{
+	public SingleTabixFileIndexLoader (TabixFileRegionIntersector intersector, TabixReaderPool readerPool) throws IOException{
 		this.intersector = intersector;	
+		this.readerPool = readerPool;
+		dataLineLoader = intersector.getDataLineLoader();
 	}
 	
 	public void run() {	
 		try {
 			//get next TabixIndexFileLookupJob, returns null if no more work
 			while ((tc = intersector.getTabixLookupJob()) != null){ 
-				tq = tc.getTabixDataQuery();
 				
-				//Different index file? Create new TabixReader?
+				//binary or resident index? no text to parse, just a binary search per region
+				if (tc.getIndexLookup() != null) {
+					for (TabixDataQuery tq: tc.getTabixDataQueries()) {
+						fileIds.clear();
+						tc.getIndexLookup().or(tq.getStart(), tq.getStop(), fileIds);
+						addHits(tq, fileIds);
+					}
+					fetchFileHits();
+					continue;
+				}
+				
+				//Different index file? Swap the pooled TabixReader
 				File indexFile = tc.getIndexFile();
 				if (indexFile.equals(tabixFile) == false) {
 					tabixFile = indexFile;
-					if (reader != null) reader.close();
-					reader = new TabixReader(tabixFile.toString());
+					readerPool.checkIn(reader);
+					reader = null;
+					reader = readerPool.checkOut(tabixFile);
 				}
 
-				fileIds.clear();
-				
-				//fetch iterator, returns null if nothing present
-				TabixReader.Iterator it = fetchIterator();
+				//fetch iterator for the whole batch, returns null if nothing present
+				CachedTabixReader.Iterator it = fetchIterator();
 				if (it == null) continue;
-
-				//parse hits
-				String[] intString = null;
-				String hitString = null;
-				while ((hitString = it.next()) != null) {
-					String[] t = Util.TAB.split(hitString);
-					intString = Util.COMMA.split(t[3]);
-					for (String fileId : intString) fileIds.add(Integer.parseInt(fileId));
-				}
-				//add hits to the MultiTabixDataQuery
-				int numFileIds = fileIds.size();
-
-				if (numFileIds !=0) {
-					File[] fileIndex = tc.getFileId2File();
-					File[] files = new File[numFileIds];
-					int counter =0;
-					for (Integer idToFetch: fileIds) files[counter++] = fileIndex[idToFetch];
-					tq.addIntersectingFiles(files);
-					numberLookupJobsWithFileHits.add(tq.getInput());
-				}
+				mergeJoin(it);
+				fetchFileHits();
 			}
 
 			//update the query stats for all the processed jobs
-			intersector.updateQueryStats(numberLookupJobsWithFileHits);
+			intersector.updateQueryStats(numberLookupJobsWithFileHits, fileIdsPreFiltering);
 
 		} catch (Exception e) {
 			failed = true;
-			lg.error("Error: searching tabix file index "+tabixFile+" for "+tq.getTabixCoordinates() +"\n"+e.toString()+"\n"+e.fillInStackTrace());
+			String coor = tc == null ? "" : tc.getBatchTabixCoordinates();
+			lg.error("Error: searching tabix file index "+tabixFile+" for "+coor +"\n"+e.toString()+"\n"+e.fillInStackTrace());
 			System.err.println("\nTabix File Index Loader Error Here\n"+e.getStackTrace()+"\n");
+			//might be mid read, don't reuse it
+			readerPool.discard(reader);
+			reader = null;
 		} finally {
-			//close the last reader
-			if (reader != null) reader.close();
+			//return the last reader
+			readerPool.checkIn(reader);
+		}
+	}
+	
+	/**Makes one forward pass through the index intervals spanning the batch, adding the file ids of each to every region it 
+	 * intersects. The regions are sorted by start. Those whose start is before the interval stop are active, and dropped
+	 * once an interval starts at or past their stop since the intervals are sorted and don't overlap.*/
+	private void mergeJoin(CachedTabixReader.Iterator it) throws IOException {
+		TabixDataQuery[] regions = tc.getTabixDataQueries();
+		if (regionFileIds.length < regions.length) {
+			regionFileIds = new RoaringBitmap[regions.length];
+			active = new int[regions.length];
+		}
+		for (int i=0; i< regions.length; i++) {
+			if (regionFileIds[i] == null) regionFileIds[i] = new RoaringBitmap();
+			else regionFileIds[i].clear();
 		}
+		int next = 0;
+		int numberActive = 0;
+		String hitString = null;
+		while ((hitString = it.next()) != null) {
+			//chr start stop ids
+			String[] t = Util.TAB.split(hitString);
+			int start = Integer.parseInt(t[1]);
+			int stop = Integer.parseInt(t[2]);
+			while (next < regions.length && regions[next].getStart() < stop) active[numberActive++] = next++;
+			int[] ids = null;
+			int kept = 0;
+			for (int i=0; i< numberActive; i++) {
+				int r = active[i];
+				//past this region?
+				if (regions[r].getStop() <= start) continue;
+				active[kept++] = r;
+				if (ids == null) ids = SingleQueryIndex.stringToInts(t[3], Util.COMMA);
+				for (int id: ids) regionFileIds[r].add(id);
+			}
+			numberActive = kept;
+			//all regions done?
+			if (numberActive == 0 && next == regions.length) break;
+		}
+		for (int i=0; i< regions.length; i++) addHits(regions[i], regionFileIds[i]);
+	}
+
+	/**Adds the files for the fileIds permitted by the dir path and file name regexes to the TabixDataQuery. Modifies the ids.*/
+	private void addHits(TabixDataQuery tq, RoaringBitmap ids) {
+		if (ids.isEmpty()) return;
+		numberLookupJobsWithFileHits.add(tq.getInput());
+		File[] fileIndex = tc.getFileId2File();
+		
+		//filtering files? drop those not permitted before resolving any
+		RoaringBitmap permitted = tc.getPermittedFileIds();
+		if (permitted != null) {
+			if (fileIdsPreFiltering == null) fileIdsPreFiltering = new IdentityHashMap<File[], RoaringBitmap>();
+			RoaringBitmap pre = fileIdsPreFiltering.get(fileIndex);
+			if (pre == null) {
+				pre = new RoaringBitmap();
+				fileIdsPreFiltering.put(fileIndex, pre);
+			}
+			pre.or(ids);
+			ids.and(permitted);
+			if (ids.isEmpty()) return;
+		}
+		
+		int[] idArray = ids.toArray();
+		File[] files = new File[idArray.length];
+		for (int i=0; i< idArray.length; i++) files[i] = fileIndex[idArray[i]];
+		tq.addIntersectingFiles(files);
+		if (dataLineLoader != null) {
+			for (File f: files) {
+				ArrayList<TabixDataQuery> al = fileHits.get(f);
+				if (al == null) {
+					al = new ArrayList<TabixDataQuery>();
+					fileHits.put(f, al);
+				}
+				al.add(tq);
+			}
+		}
+	}
+	
+	/**Starts the data fetch of each file hit by the job just completed.*/
+	private void fetchFileHits() {
+		if (dataLineLoader == null) return;
+		for (File f: fileHits.keySet()) dataLineLoader.fetch(f, fileHits.get(f));
+		fileHits.clear();
 	}
 	
 	/**Use to try to fetch an iterator.*/
-	private TabixReader.Iterator fetchIterator(){
-		String coor = tq.getTabixCoordinates();
-		TabixReader.Iterator it = null;
+	private CachedTabixReader.Iterator fetchIterator(){
+		String coor = tc.getBatchTabixCoordinates();
+		CachedTabixReader.Iterator it = null;
 		//watch out for no retrieved data error from tabix
 		try {
-			it = reader.query(coor);
+			it = reader.getReader().query(coor);
 		} catch (ArrayIndexOutOfBoundsException e){}
 		return it;
 	}
@@ -0,0 +1,34 @@
+package edu.utah.hci.tabix;
+
+import java.util.ArrayList;
+
+/**Collects the records of each part of a large TabixDataLineLookupJob split across the fetch threads, then hands them to the
+ * TabixDataQuerys in file order once the last part completes.*/
+public class SplitReadResults {
+
+	//fields
+	private TabixDataLineLookupJob whole;
+	//by part, then by query
+	private ArrayList<ArrayList<ArrayList<String>>> partResults;
+	private int remaining;
+
+	public SplitReadResults(TabixDataLineLookupJob whole, int numberParts) {
+		this.whole = whole;
+		remaining = numberParts;
+		partResults = new ArrayList<ArrayList<ArrayList<String>>>(numberParts);
+		for (int i=0; i< numberParts; i++) partResults.add(null);
+	}
+
+	/**Saves the part's records for each query, by the query's index in the whole job.*/
+	public synchronized void complete(int part, ArrayList<ArrayList<String>> queryResults) {
+		partResults.set(part, queryResults);
+		if (--remaining != 0) return;
+		ArrayList<TabixDataQuery> tqs = whole.getTabixDataQueries();
+		for (int i=0; i< tqs.size(); i++) {
+			ArrayList<String> al = new ArrayList<String>();
+			for (ArrayList<ArrayList<String>> pr: partResults) al.addAll(pr.get(i));
+			if (al.size() != 0) tqs.get(i).addResults(whole.getDataFile(), al);
+		}
+		partResults = null;
+	}
+}
@@ -3,78 +3,241 @@ package edu.utah.hci.tabix;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
+import edu.utah.hci.query.MasterQuery;
+import edu.utah.hci.query.QueryFilter;
 import edu.utah.hci.query.QueryRequest;
 
-/**Class for coordinating the fetch of data from tabix files*/
+/**Class for coordinating the fetch of data from tabix files. Fed by the TabixFileRegionIntersector as each of its index lookups
+ * completes so data retrieval for the first files hit overlaps the lookups still running.*/
 public class TabixDataLineLoader {
-	
+
 	//fields
-	private ArrayList<TabixDataLineLookupJob> lookupJobs = new ArrayList<TabixDataLineLookupJob>();
-	private int currentLookupJobIndex = 0;
+	private MasterQuery masterQuery;
+	private QueryFilter queryFilter;
+	private ArrayList<Future<?>> fetches = new ArrayList<Future<?>>();
+	private ArrayList<SingleTabixDataLoader> loaders = new ArrayList<SingleTabixDataLoader>();
 	private HashSet<String>  queries = new HashSet<String>();
 	private HashSet<String> queriesWithData = new HashSet<String>();
 	private HashSet<String> queriesWithDataThatPassRegEx = new HashSet<String>();
+	private long start = 0;
 	private long msTimeToComplete = 0;
 	private int numberLookupJobs = 0;
+	private int numberRangeReads = 0;
+	private int numberStreamedReads = 0;
+	private int numberSplitReads = 0;
+	private TreeSet<File> missingFiles = new TreeSet<File>();
 
-	public TabixDataLineLoader(QueryRequest queryRequest) throws IOException {
-		
-		long start = System.currentTimeMillis();
+	//a random read costs about a seek and inflating a whole bgzf block, when the reads of a file's queries add up to more than
+	//the compressed bytes they span it's cheaper to stream the span and merge join the records against the sorted queries
+	public static final long READ_COST_BYTES = 65536;
+
+	//reads spanning more than this many compressed bytes are split into parts for the fetch threads
+	public static final long DEFAULT_MIN_SPLIT_BYTES = 4l * 1048576;
+	private long minSplitBytes;
+
+	//fetches of this request queued on the shared fetch pool, past this the index loader fetches the data itself
+	public static final int MAX_PENDING_FETCHES = 256;
+	private Semaphore pendingFetches = new Semaphore(MAX_PENDING_FETCHES);
+
+	/**@param minSplitBytes of compressed data a read must span to be split, Long.MAX_VALUE to never split.*/
+	public TabixDataLineLoader(QueryRequest queryRequest, long minSplitBytes) {
+		start = System.currentTimeMillis();
+		this.minSplitBytes = minSplitBytes;
+		masterQuery = queryRequest.getMasterQuery();
+		queryFilter = queryRequest.getQueryFilter();
+	}
+
+	/**Coalesces the queries of a data file hit by one index lookup into reads and starts fetching them. Called by the index loaders
+	 * with just the files passing the dir path and file name regexes.
+	 * @param sortedQueries on one chromosome, sorted by start.*/
+	public void fetch(File f, List<TabixDataQuery> sortedQueries) {
+		ArrayList<TabixDataLineLookupJob> reads = coalesce(f, sortedQueries, TabixDataLineLookupJob.MAX_MERGE_GAP);
+		ParsedTabixIndex index = fetchIndex(masterQuery.getReaderPool().getIndexCache(), f);
+		boolean stream = false;
+		if (reads.size() > 1 && isStreamCheaper(index, reads)) {
+			reads = coalesce(f, sortedQueries, Integer.MAX_VALUE);
+			stream = true;
+		}
 		
-		//create lookup jobs
-		HashMap<File, ArrayList<TabixDataQuery>> fileTabixQueries = queryRequest.getFileTabixQueries();
-		for (File f: fileTabixQueries.keySet()) {
-			ArrayList<TabixDataQuery> al = fileTabixQueries.get(f);
-			for (TabixDataQuery dq: al) {
-				lookupJobs.add(new TabixDataLineLookupJob(f, dq));
-				queries.add(dq.getInterbaseCoordinates());
+		//large reads are split into parts fetched in parallel, the rest are fetched together in order
+		ArrayList<ArrayList<TabixDataLineLookupJob>> tasks = new ArrayList<ArrayList<TabixDataLineLookupJob>>();
+		ArrayList<TabixDataLineLookupJob> unsplit = new ArrayList<TabixDataLineLookupJob>();
+		int numberSplit = 0;
+		for (TabixDataLineLookupJob read: reads) {
+			ArrayList<TabixDataLineLookupJob> parts = split(index, read);
+			if (parts == null) unsplit.add(read);
+			else {
+				numberSplit++;
+				for (TabixDataLineLookupJob p: parts) {
+					ArrayList<TabixDataLineLookupJob> task = new ArrayList<TabixDataLineLookupJob>(1);
+					task.add(p);
+					tasks.add(task);
+				}
 			}
 		}
-		numberLookupJobs = lookupJobs.size();
-		
-		//create threaded loaders
-		int numLoaders = queryRequest.getMasterQuery().getNumberThreads();
-		if (numberLookupJobs < numLoaders) numLoaders = numberLookupJobs;
+		if (unsplit.size() != 0) tasks.add(unsplit);
 		
-		SingleTabixDataLoader[] loader = new SingleTabixDataLoader[numLoaders];
-		ExecutorService executor = Executors.newFixedThreadPool(numLoaders);
-		
-		for (int i=0; i< loader.length; i++){
-			loader[i] = new SingleTabixDataLoader(this, queryRequest.getQueryFilter());
-			executor.execute(loader[i]);
+		synchronized (this) {
+			for (TabixDataQuery dq: sortedQueries) queries.add(dq.getInterbaseCoordinates());
+			numberLookupJobs += sortedQueries.size();
+			numberRangeReads += reads.size();
+			numberSplitReads += numberSplit;
+			if (stream) numberStreamedReads++;
 		}
-		executor.shutdown();
+		for (ArrayList<TabixDataLineLookupJob> task: tasks) start(new SingleTabixDataLoader(this, queryFilter, masterQuery.getReaderPool(), task));
+	}
+	
+	/**Queues the loader on the shared fetch pool.*/
+	private void start(final SingleTabixDataLoader loader) {
+		synchronized (this) {
+			loaders.add(loader);
+		}
+		//too many queued? then fetch here, slowing this request's index lookups rather than flooding the shared pool
+		if (pendingFetches.tryAcquire() == false) {
+			loader.run();
+			return;
+		}
+		Future<?> fetch = masterQuery.submitFetch(new Runnable() {
+			public void run() {
+				try {
+					loader.run();
+				} finally {
+					pendingFetches.release();
+				}
+			}
+		});
+		synchronized (this) {
+			fetches.add(fetch);
+		}
+	}
 
-		//spins here until the executer is terminated, e.g. all threads complete
-		while (!executor.isTerminated()) {}
+	/**Blocks until all of the fetches complete, call once the index lookups are done.*/
+	public void awaitFetches() throws IOException {
+		ArrayList<Future<?>> toWait;
+		synchronized (this) {
+			toWait = new ArrayList<Future<?>>(fetches);
+		}
+		MasterQuery.awaitAll(toWait);
 
-		//check loaders 
-		for (SingleTabixDataLoader c: loader) {
+		//check loaders
+		for (SingleTabixDataLoader c: loaders) {
 			if (c.isFailed()) throw new IOException("ERROR: TabixLoader issue! \n"+c);
 		}
-		
+
 		msTimeToComplete = System.currentTimeMillis() - start;
 	}
 
-	/**Provides a single lookup job or returns null*/
-	public synchronized TabixDataLineLookupJob getTabixLookupJob() {
-		if (currentLookupJobIndex < numberLookupJobs) return lookupJobs.get(currentLookupJobIndex++);
-		return null;
+	/**Stops the queued fetches, e.g. when an index lookup failed.*/
+	public synchronized void cancelFetches() {
+		for (Future<?> f: fetches) f.cancel(true);
+	}
+
+	/**Merges the queries, sorted by start, into reads no more than maxGap bp apart.*/
+	private static ArrayList<TabixDataLineLookupJob> coalesce(File f, List<TabixDataQuery> sortedQueries, int maxGap) {
+		ArrayList<TabixDataLineLookupJob> reads = new ArrayList<TabixDataLineLookupJob>();
+		TabixDataLineLookupJob job = null;
+		for (TabixDataQuery dq: sortedQueries) {
+			if (job == null || job.merge(dq, maxGap) == false) {
+				job = new TabixDataLineLookupJob(f, dq);
+				reads.add(job);
+			}
+		}
+		return reads;
+	}
+
+	/**Splits a read spanning more than minSplitBytes of compressed data into parts, one per fetch thread at most, 
+	 * at linear index windows. Returns null if it isn't worth splitting.*/
+	private ArrayList<TabixDataLineLookupJob> split(ParsedTabixIndex index, TabixDataLineLookupJob read) {
+		if (index == null) return null;
+		String chr = fetchIndexedChr(index, read.getChr());
+		if (chr == null) return null;
+		long bytes = index.fetchCompressedBytes(chr, read.getStart(), read.getStop());
+		int numberParts = (int) Math.min(masterQuery.getNumberFetchThreads(), bytes / minSplitBytes);
+		if (numberParts < 2) return null;
+		int[] positions = index.fetchSplitPositions(chr, read.getStart(), read.getStop(), numberParts);
+		if (positions.length == 0) return null;
+		
+		SplitReadResults results = new SplitReadResults(read, positions.length + 1);
+		ArrayList<TabixDataLineLookupJob> parts = new ArrayList<TabixDataLineLookupJob>(positions.length + 1);
+		int partStart = read.getStart();
+		for (int i=0; i<= positions.length; i++) {
+			int partStop = i < positions.length ? positions[i] : read.getStop();
+			parts.add(new TabixDataLineLookupJob(read, partStart, partStop, results, i));
+			partStart = partStop;
+		}
+		return parts;
 	}
 	
+	/**Returns the chromosome name in the index, without or with a chr prefix, or null if not present.*/
+	private static String fetchIndexedChr(ParsedTabixIndex index, String chr) {
+		if (index.fetchTid(chr) >= 0) return chr;
+		if (index.fetchTid("chr"+chr) >= 0) return "chr"+chr;
+		return null;
+	}
+
+	/**Compares the cost of the random reads against streaming from the first to the last, false if the span size isn't known.*/
+	private static boolean isStreamCheaper(ParsedTabixIndex index, ArrayList<TabixDataLineLookupJob> reads) {
+		if (index == null) return false;
+		String chr = reads.get(0).getChr();
+		int spanStart = reads.get(0).getStart();
+		int spanStop = 0;
+		for (TabixDataLineLookupJob r: reads) if (r.getStop() > spanStop) spanStop = r.getStop();
+		chr = fetchIndexedChr(index, chr);
+		if (chr == null) return false;
+		long spanBytes = index.fetchCompressedBytes(chr, spanStart, spanStop);
+		if (spanBytes == 0) return false;
+		return reads.size() * READ_COST_BYTES > spanBytes;
+	}
+
+	/**Returns the decoded index or null if the file or its index is missing, the loaders then report it.*/
+	private static ParsedTabixIndex fetchIndex(TabixIndexCache indexCache, File f) {
+		if (f.exists() == false) return null;
+		try {
+			return indexCache.fetch(f);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	public synchronized void updateQueryStats(HashSet<String> queriesWithData, HashSet<String> queriesWithDataThatPassRegEx ) {
 		this.queriesWithData.addAll(queriesWithData);
 		this.queriesWithDataThatPassRegEx.addAll(queriesWithDataThatPassRegEx);
-		
+
+	}
+	/**Records a data file listed in an index that no longer exists, its lookups are skipped.*/
+	public synchronized void addMissingFile(File f) {
+		missingFiles.add(f);
 	}
+
+	public TreeSet<File> getMissingFiles() {
+		return missingFiles;
+	}
+
+	/**Returns the number of file : query lookups, before coalescing.*/
 	public int getNumberLookupJobs() {
 		return numberLookupJobs;
 	}
+
+	/**Returns the number of reads streamed from their first query to their last rather than region by region.*/
+	public int getNumberStreamedReads() {
+		return numberStreamedReads;
+	}
+
+	/**Returns the number of reads split into parts fetched in parallel.*/
+	public int getNumberSplitReads() {
+		return numberSplitReads;
+	}
+
+	/**Returns the number of file reads the lookups were coalesced into.*/
+	public int getNumberRangeReads() {
+		return numberRangeReads;
+	}
 	public long getMsTimeToComplete() {
 		return msTimeToComplete;
 	}
@@ -1,23 +1,93 @@
 package edu.utah.hci.tabix;
 
 import java.io.File;
+import java.util.ArrayList;
 
+/**A single read of a data file covering one or more TabixDataQuerys on the same chromosome whose regions overlap or lie within
+ * MAX_MERGE_GAP bp of each other. The records are handed back to each of the queries they intersect.*/
 public class TabixDataLineLookupJob {
-	
+
+	//regions this close are read together, the few records in between are parsed and dropped rather than seeking again
+	public static final int MAX_MERGE_GAP = 1000;
+
 	private File dataFile = null;
-	private TabixDataQuery tabixDataQuery = null;
+	private String chr;
+	private int start; //interbase
+	private int stop; //interbase
+	//sorted by start
+	private ArrayList<TabixDataQuery> tabixDataQueries = new ArrayList<TabixDataQuery>();
+	
+	//when one part of a large read split across the fetch threads, records starting before minRecordBeg belong to the prior part
+	private SplitReadResults splitResults = null;
+	private int part = 0;
+	private int minRecordBeg = Integer.MIN_VALUE;
 
 	public TabixDataLineLookupJob(File dataFile, TabixDataQuery tabixDataQuery) {
 		this.dataFile = dataFile;
-		this.tabixDataQuery = tabixDataQuery;
+		chr = tabixDataQuery.getChr();
+		start = tabixDataQuery.getStart();
+		stop = tabixDataQuery.getStop();
+		tabixDataQueries.add(tabixDataQuery);
+	}
+
+	/**Makes one part of a large read, covering start to stop of its region, with the same queries.*/
+	public TabixDataLineLookupJob(TabixDataLineLookupJob whole, int start, int stop, SplitReadResults splitResults, int part) {
+		dataFile = whole.dataFile;
+		chr = whole.chr;
+		tabixDataQueries = whole.tabixDataQueries;
+		this.start = start;
+		this.stop = stop;
+		this.splitResults = splitResults;
+		this.part = part;
+		if (part != 0) minRecordBeg = start;
+	}
+
+	/**Adds the query to this read if it's on the same chromosome and within the max gap, queries must be offered in start order.
+	 * @param maxGap bp between this read and the query, MAX_MERGE_GAP or Integer.MAX_VALUE to stream the chromosome.
+	 * @return false if it should start a new read.*/
+	public boolean merge(TabixDataQuery tq, int maxGap) {
+		if (tq.getChr().equals(chr) == false || tq.getStart() - stop > maxGap) return false;
+		tabixDataQueries.add(tq);
+		if (tq.getStop() > stop) stop = tq.getStop();
+		return true;
 	}
 
 	public File getDataFile() {
 		return dataFile;
 	}
 
-	public TabixDataQuery getTabixDataQuery() {
-		return tabixDataQuery;
+	public ArrayList<TabixDataQuery> getTabixDataQueries() {
+		return tabixDataQueries;
+	}
+
+	public String getChr() {
+		return chr;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getStop() {
+		return stop;
+	}
+
+	/**Null unless a part of a split read.*/
+	public SplitReadResults getSplitResults() {
+		return splitResults;
+	}
+
+	public int getPart() {
+		return part;
+	}
+
+	/**Records starting before this belong to the prior part of a split read.*/
+	public int getMinRecordBeg() {
+		return minRecordBeg;
+	}
+
+	public String getTabixCoordinates() {
+		return chr+":"+(start+1)+"-"+stop;
 	}
 
 }
@@ -3,12 +3,14 @@ package edu.utah.hci.tabix;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.IdentityHashMap;
 import org.json.JSONObject;
 
+import edu.utah.hci.misc.RoaringBitmap;
+import edu.utah.hci.query.ChromIndexLookup;
 import edu.utah.hci.query.QueryRequest;
 import edu.utah.hci.query.SingleQuery;
 
@@ -17,16 +19,26 @@ public class TabixFileRegionIntersector {
 	
 	//fields
 	private HashMap<File, ArrayList<TabixDataQuery>> fileTabixQueries = null;
+	private TabixDataLineLoader dataLineLoader = null;
 	private ArrayList<TabixIndexFileLookupJob> lookupJobs = new ArrayList<TabixIndexFileLookupJob>();
 	private int currentLookupJobIndex = 0;
 	private int numberLookupJobs = 0;
 	private int numberQueries = 0;
+	private int numberRegionLookups = 0;
+	
+	//nearby regions are searched together in one pass through the index, split when further apart than this or when too many
+	public static final int MAX_BATCH_GAP = 100000;
+	public static final int MAX_BATCH_SIZE = 1000;
 	private HashSet<String> lookupJobsWithFileHits = new HashSet<String>();
+	//when filtering files, the ids hit before the regexes were applied by each SingleQuery's fileId2File
+	private IdentityHashMap<File[], RoaringBitmap> fileIdsPreFiltering = null;
 	private long msTimeToComplete = 0;
 
-	public TabixFileRegionIntersector(QueryRequest queryRequest, ArrayList<SingleQuery> toSearch) throws IOException {
+	/**@param dataLineLoader to start fetching the data of each file as soon as an index lookup finds it, null when not fetching data.*/
+	public TabixFileRegionIntersector(QueryRequest queryRequest, ArrayList<SingleQuery> toSearch, TabixDataLineLoader dataLineLoader) throws IOException {
 		
 		long start = System.currentTimeMillis();
+		this.dataLineLoader = dataLineLoader;
 		
 		// this is the master object to load with files that intersect the user queries
 		fileTabixQueries = queryRequest.getFileTabixQueries();
@@ -35,19 +47,31 @@ public class TabixFileRegionIntersector {
 		//Contains all the user region TabixQueries split by chromosome. Will be loaded with results.
 		HashMap<String, TabixDataQuery[]> chrTabixQueries = queryRequest.getChrTabixQueries();
 		
+		//lazily registered SingleQuerys are loaded on first use
+		queryRequest.getMasterQuery().loadQueries(toSearch);
+		
+		//the files each SingleQuery may return given the dir path and file name regexes, applied as the index hits are decoded
+		RoaringBitmap[] permittedFileIds = new RoaringBitmap[toSearch.size()];
+		for (int i=0; i< permittedFileIds.length; i++) permittedFileIds[i] = toSearch.get(i).fetchPermittedFileIds(queryRequest.getQueryFilter());
+		if (queryRequest.getQueryFilter().getFileFilterKey() != null) fileIdsPreFiltering = new IdentityHashMap<File[], RoaringBitmap>();
+		
 		//create lookup jobs
 		//for each chrom of user TabixQueries
 		
 		for (String chr: chrTabixQueries.keySet()) {
 			TabixDataQuery[] regions = chrTabixQueries.get(chr);
 			numberQueries+= regions.length;
+			ArrayList<TabixDataQuery[]> batches = splitIntoBatches(regions);
 			
 			//for each SingleQuery
-			for (SingleQuery sq: toSearch) {	
+			for (int i=0; i< toSearch.size(); i++) {
+				SingleQuery sq = toSearch.get(i);
 				//does the SingleQuery have the chr they want to search? If so create LookupJobs
 				File fToSearch = sq.getQueryIndex().getChrTabixTree().get(chr);
 				if (fToSearch != null) {
-					for (TabixDataQuery mtdq: regions) lookupJobs.add(new TabixIndexFileLookupJob(sq.getQueryIndex().getFileId2File(), fToSearch, mtdq));
+					ChromIndexLookup lookup = sq.getQueryIndex().getChrIndexLookup().get(chr);
+					for (TabixDataQuery[] batch: batches) lookupJobs.add(new TabixIndexFileLookupJob(sq.getQueryIndex().getFileId2File(), permittedFileIds[i], fToSearch, lookup, batch));
+					numberRegionLookups+= regions.length;
 				}
 			}
 		}
@@ -58,14 +82,9 @@ public class TabixFileRegionIntersector {
 		int numLoaders = queryRequest.getMasterQuery().getNumberThreads();
 		if (numberLookupJobs < numLoaders) numLoaders = numberLookupJobs;
 		SingleTabixFileIndexLoader[] loader = new SingleTabixFileIndexLoader[numLoaders];
-		ExecutorService executor = Executors.newFixedThreadPool(numLoaders);
-		for (int i=0; i< loader.length; i++){
-			loader[i] = new SingleTabixFileIndexLoader(this);
-			executor.execute(loader[i]);
-		}
-		executor.shutdown();
-		//spins here until the executer is terminated, e.g. all threads complete
-		while (!executor.isTerminated()) {}
+		for (int i=0; i< loader.length; i++) loader[i] = new SingleTabixFileIndexLoader(this, queryRequest.getMasterQuery().getReaderPool());
+		//blocks until all complete
+		queryRequest.getMasterQuery().runLookups(loader);
 		//check loaders 
 		for (SingleTabixFileIndexLoader c: loader) {
 			if (c.isFailed()) throw new IOException("ERROR: SingleTabixFileIndexLoader issue! \n"+c);
@@ -87,6 +106,23 @@ public class TabixFileRegionIntersector {
 		msTimeToComplete = System.currentTimeMillis() - start;
 	}
 	
+	/**Splits the regions, sorted by start, into batches of nearby regions.*/
+	public static ArrayList<TabixDataQuery[]> splitIntoBatches(TabixDataQuery[] regions) {
+		ArrayList<TabixDataQuery[]> batches = new ArrayList<TabixDataQuery[]>();
+		int first = 0;
+		int maxStop = regions[0].getStop();
+		for (int i=1; i< regions.length; i++) {
+			if (regions[i].getStart() - maxStop > MAX_BATCH_GAP || i - first == MAX_BATCH_SIZE) {
+				batches.add(Arrays.copyOfRange(regions, first, i));
+				first = i;
+				maxStop = regions[i].getStop();
+			}
+			else if (regions[i].getStop() > maxStop) maxStop = regions[i].getStop();
+		}
+		batches.add(Arrays.copyOfRange(regions, first, regions.length));
+		return batches;
+	}
+	
 	/**Adds the TabixQuery to an ArrayList associated with a file resource to fetch the data from.*/
 	private void addHitsViaFiles(HashSet<File> fileHits, TabixDataQuery tq) {
 		for (File fHit: fileHits){
@@ -99,14 +135,34 @@ public class TabixFileRegionIntersector {
 		}
 	}
 
+	/**Returns null unless fetching data.*/
+	public TabixDataLineLoader getDataLineLoader() {
+		return dataLineLoader;
+	}
+
 	/**Provides a single lookup job or returns null*/
 	public synchronized TabixIndexFileLookupJob getTabixLookupJob() {
 		if (currentLookupJobIndex < numberLookupJobs) return lookupJobs.get(currentLookupJobIndex++);
 		return null;
 	}
 	
-	public synchronized void updateQueryStats(HashSet<String> hits) {
+	/**@param fileIds hit before filtering by fileId2File, null if not filtering files.*/
+	public synchronized void updateQueryStats(HashSet<String> hits, IdentityHashMap<File[], RoaringBitmap> fileIds) {
 		lookupJobsWithFileHits.addAll(hits);
+		if (fileIds == null) return;
+		for (File[] fileId2File: fileIds.keySet()) {
+			RoaringBitmap union = fileIdsPreFiltering.get(fileId2File);
+			if (union == null) fileIdsPreFiltering.put(fileId2File, fileIds.get(fileId2File));
+			else union.or(fileIds.get(fileId2File));
+		}
+	}
+
+	/**Returns the number of data files hit by the index lookups before the dir path and file name regexes were applied.*/
+	public int getNumberFilesPreFiltering() {
+		if (fileIdsPreFiltering == null) return fileTabixQueries.size();
+		int num = 0;
+		for (RoaringBitmap rb: fileIdsPreFiltering.values()) num += rb.getCardinality();
+		return num;
 	}
 
 	public JSONObject getIndexQueryStats() {
@@ -114,7 +170,7 @@ public class TabixFileRegionIntersector {
 		JSONObject stats = new JSONObject();
 		stats.put("numberQueries", numberQueries);
 		stats.put("numberQueriesThatIntersectDataFilesPreFiltering", lookupJobsWithFileHits.size());
-		stats.put("numberIndexLookupJobs", numberLookupJobs);
+		stats.put("numberIndexLookupJobs", numberRegionLookups);
 		stats.put("millSecForFileIntersectionSearch", msTimeToComplete);
 		return stats;
 
@@ -0,0 +1,73 @@
+package edu.utah.hci.tabix;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**Holds the decoded tbi of each data file so it's parsed once and shared by every reader and indexer thread rather than for
+ * each new TabixReader. Bounded by the approximate heap bytes of the indexes, the least recently used are dropped when over.
+ * An index whose tbi changed size or modification time is decoded again. Thread safe.*/
+public class TabixIndexCache {
+
+	public static final long DEFAULT_MAX_BYTES = 256l * 1048576;
+
+	//fields
+	private long maxBytes;
+	private long bytes = 0;
+	private LinkedHashMap<File, ParsedTabixIndex> indexes = new LinkedHashMap<File, ParsedTabixIndex>(64, 0.75f, true);
+
+	//stats
+	private long numberHits = 0;
+	private long numberLoaded = 0;
+	private long numberEvicted = 0;
+
+	public TabixIndexCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**Returns the decoded xxx.gz.tbi for the data file, decoding it if not cached or changed.*/
+	public ParsedTabixIndex fetch(File dataFile) throws IOException {
+		synchronized (this) {
+			ParsedTabixIndex pti = indexes.get(dataFile);
+			if (pti != null) {
+				if (pti.isCurrent()) {
+					numberHits++;
+					return pti;
+				}
+				indexes.remove(dataFile);
+				bytes -= pti.getBytes();
+			}
+		}
+		//decode outside the lock, two threads may race on the same file, the last one in is kept
+		ParsedTabixIndex pti = new ParsedTabixIndex(new File(dataFile.getPath()+".tbi"));
+		synchronized (this) {
+			numberLoaded++;
+			ParsedTabixIndex old = indexes.put(dataFile, pti);
+			if (old != null) bytes -= old.getBytes();
+			bytes += pti.getBytes();
+			Iterator<Map.Entry<File, ParsedTabixIndex>> it = indexes.entrySet().iterator();
+			while (bytes > maxBytes && indexes.size() > 1) {
+				ParsedTabixIndex eldest = it.next().getValue();
+				it.remove();
+				bytes -= eldest.getBytes();
+				numberEvicted++;
+			}
+		}
+		return pti;
+	}
+
+	public synchronized JSONObject getStats() {
+		JSONObject jo = new JSONObject();
+		jo.put("maxMB", maxBytes / 1048576);
+		jo.put("cachedIndexes", indexes.size());
+		jo.put("cachedBytes", bytes);
+		jo.put("reused", numberHits);
+		jo.put("decoded", numberLoaded);
+		jo.put("evicted", numberEvicted);
+		return jo;
+	}
+}
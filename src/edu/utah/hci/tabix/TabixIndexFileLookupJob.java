@@ -2,26 +2,52 @@ package edu.utah.hci.tabix;
 
 import java.io.File;
 
+import edu.utah.hci.misc.RoaringBitmap;
+import edu.utah.hci.query.ChromIndexLookup;
+
+/**A batch of nearby user regions on one chromosome, sorted by start, to intersect with one directory's query index.*/
 public class TabixIndexFileLookupJob {
 	
-	private TabixDataQuery tabixDataQuery = null;
+	private TabixDataQuery[] tabixDataQueries = null;
 	private File indexFile = null;
 	private File[] fileId2File = null;
+	private ChromIndexLookup indexLookup = null;
+	private RoaringBitmap permittedFileIds = null;
+	private int batchStart;
+	private int batchStop;
 
-	public TabixIndexFileLookupJob(File[] fileId2File, File indexFile, TabixDataQuery tabixDataQuery) {
-		this.tabixDataQuery = tabixDataQuery;
+	/**The indexLookup is null when the chrom can only be searched with tabix, the permittedFileIds null when files aren't filtered.*/
+	public TabixIndexFileLookupJob(File[] fileId2File, RoaringBitmap permittedFileIds, File indexFile, ChromIndexLookup indexLookup, TabixDataQuery[] tabixDataQueries) {
+		this.permittedFileIds = permittedFileIds;
+		this.tabixDataQueries = tabixDataQueries;
 		this.indexFile = indexFile;
+		this.indexLookup = indexLookup;
 		this.fileId2File = fileId2File;
+		batchStart = tabixDataQueries[0].getStart();
+		batchStop = batchStart;
+		for (TabixDataQuery tq: tabixDataQueries) if (tq.getStop() > batchStop) batchStop = tq.getStop();
+	}
+
+	/**Returns the tabix coordinates spanning all of the regions.*/
+	public String getBatchTabixCoordinates() {
+		return tabixDataQueries[0].getChr()+":"+(batchStart+1)+"-"+batchStop;
 	}
 
-	public TabixDataQuery getTabixDataQuery() {
-		return tabixDataQuery;
+	public TabixDataQuery[] getTabixDataQueries() {
+		return tabixDataQueries;
 	}
 	public File getIndexFile() {
 		return indexFile;
 	}
+	public ChromIndexLookup getIndexLookup() {
+		return indexLookup;
+	}
 	public File[] getFileId2File() {
 		return fileId2File;
 	}
+	/**Null unless filtering on the dir path and file name regexes, shared so don't modify.*/
+	public RoaringBitmap getPermittedFileIds() {
+		return permittedFileIds;
+	}
 
 }
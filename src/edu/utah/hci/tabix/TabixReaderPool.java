@@ -0,0 +1,152 @@
+package edu.utah.hci.tabix;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import org.json.JSONObject;
+
+/**Keeps TabixReaders open across requests so hot files aren't reopened for every query, their tbi indexes come from the
+ * shared TabixIndexCache and their inflated blocks from the shared BgzfBlockCache. A reader isn't thread safe so each is checked out by one thread and checked back in when it moves to another file.
+ * Several idle readers may be held for the same file. The total open readers is held to the budget by closing the least
+ * recently used idle ones, if every reader is checked out a new one is still opened and then closed on check in.
+ * Readers whose file has changed size or modification time are closed and reopened.*/
+public class TabixReaderPool {
+
+	//fields
+	private int maxOpenReaders;
+	private TabixIndexCache indexCache;
+	private BgzfBlockCache blockCache;
+	private int numberOpen = 0;
+	private HashMap<File, ArrayDeque<PooledTabixReader>> idleReaders = new HashMap<File, ArrayDeque<PooledTabixReader>>();
+	//idle readers, least recently used first
+	private LinkedHashSet<PooledTabixReader> lru = new LinkedHashSet<PooledTabixReader>();
+	private boolean closed = false;
+
+	//stats
+	private long numberHits = 0;
+	private long numberOpened = 0;
+	private long numberEvicted = 0;
+	private long numberInvalidated = 0;
+
+	/**@param blockCache shared inflated blocks, null to read every block from the files.*/
+	public TabixReaderPool(int maxOpenReaders, TabixIndexCache indexCache, BgzfBlockCache blockCache) {
+		this.maxOpenReaders = maxOpenReaders;
+		this.indexCache = indexCache;
+		this.blockCache = blockCache;
+	}
+
+	/**Returns an open reader for the file, reusing an idle one if present. Check it back in when done, or discard it if it threw an error.*/
+	public PooledTabixReader checkOut(File file) throws IOException {
+		ArrayList<PooledTabixReader> toClose = new ArrayList<PooledTabixReader>();
+		try {
+			synchronized (this) {
+				ArrayDeque<PooledTabixReader> idle = idleReaders.get(file);
+				while (idle != null && idle.size() != 0) {
+					PooledTabixReader ptr = idle.pollLast();
+					lru.remove(ptr);
+					if (idle.size() == 0) idleReaders.remove(file);
+					if (ptr.isCurrent()) {
+						numberHits++;
+						return ptr;
+					}
+					numberInvalidated++;
+					numberOpen--;
+					toClose.add(ptr);
+				}
+				//make room for a new reader
+				numberOpen++;
+				numberOpened++;
+				Iterator<PooledTabixReader> it = lru.iterator();
+				while (numberOpen > maxOpenReaders && it.hasNext()) {
+					PooledTabixReader ptr = it.next();
+					it.remove();
+					removeIdle(ptr);
+					numberOpen--;
+					numberEvicted++;
+					toClose.add(ptr);
+				}
+			}
+		} finally {
+			//close outside the lock
+			for (PooledTabixReader ptr: toClose) ptr.close();
+		}
+		try {
+			return new PooledTabixReader(file, indexCache, blockCache);
+		} catch (IOException e) {
+			synchronized (this) {
+				numberOpen--;
+			}
+			throw e;
+		}
+	}
+
+	/**Returns a reader to the pool for reuse, or closes it if over budget or the pool is closed.*/
+	public void checkIn(PooledTabixReader ptr) {
+		if (ptr == null) return;
+		synchronized (this) {
+			if (closed == false && numberOpen <= maxOpenReaders) {
+				ArrayDeque<PooledTabixReader> idle = idleReaders.get(ptr.getFile());
+				if (idle == null) {
+					idle = new ArrayDeque<PooledTabixReader>();
+					idleReaders.put(ptr.getFile(), idle);
+				}
+				idle.addLast(ptr);
+				lru.add(ptr);
+				return;
+			}
+			numberOpen--;
+		}
+		ptr.close();
+	}
+
+	/**Closes a checked out reader without returning it to the pool, e.g. after an error.*/
+	public void discard(PooledTabixReader ptr) {
+		if (ptr == null) return;
+		synchronized (this) {
+			numberOpen--;
+		}
+		ptr.close();
+	}
+
+	private void removeIdle(PooledTabixReader ptr) {
+		ArrayDeque<PooledTabixReader> idle = idleReaders.get(ptr.getFile());
+		idle.remove(ptr);
+		if (idle.size() == 0) idleReaders.remove(ptr.getFile());
+	}
+
+	/**Closes all of the idle readers, those checked out are closed when checked in.*/
+	public void close() {
+		ArrayList<PooledTabixReader> toClose;
+		synchronized (this) {
+			closed = true;
+			toClose = new ArrayList<PooledTabixReader>(lru);
+			lru.clear();
+			idleReaders.clear();
+			numberOpen -= toClose.size();
+		}
+		for (PooledTabixReader ptr: toClose) ptr.close();
+	}
+
+	public TabixIndexCache getIndexCache() {
+		return indexCache;
+	}
+
+	public synchronized JSONObject getStats() {
+		JSONObject jo = new JSONObject();
+		jo.put("maxOpenReaders", maxOpenReaders);
+		jo.put("openReaders", numberOpen);
+		jo.put("idleReaders", lru.size());
+		jo.put("reused", numberHits);
+		jo.put("opened", numberOpened);
+		jo.put("evicted", numberEvicted);
+		jo.put("invalidated", numberInvalidated);
+		jo.put("tbiCache", indexCache.getStats());
+		if (blockCache != null) jo.put("blockCache", blockCache.getStats());
+		return jo;
+	}
+}
@@ -0,0 +1,72 @@
+package edu.utah.hci.test;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.utah.hci.misc.Util;
+import edu.utah.hci.tabix.BgzfBlockCache;
+import edu.utah.hci.tabix.CachedTabixReader;
+import edu.utah.hci.tabix.TabixIndexCache;
+import htsjdk.tribble.readers.TabixReader;
+
+import static org.junit.Assert.*;
+
+/**Checks the CachedTabixReader returns the same records as the htsjdk TabixReader for the vcf, bed, bedGraph, maf, and query index test files,
+ * reading straight from the files and through a small BgzfBlockCache that's forced to evict.*/
+public class CachedTabixReaderTests {
+
+	private File dataDir = new File (System.getProperty("user.dir")+"/TestResources/Data");
+
+	@Test
+	public void queryTest() throws Exception{
+		TabixIndexCache cache = new TabixIndexCache(TabixIndexCache.DEFAULT_MAX_BYTES);
+		BgzfBlockCache blockCache = new BgzfBlockCache(2 * 1048576);
+		File[] tbis = Util.fetchFilesRecursively(dataDir, ".gz.tbi");
+		assertTrue(tbis.length > 10);
+		Random r = new Random(1);
+		long numberRecords = 0;
+		for (File tbi: tbis) {
+			File dataFile = new File(tbi.getParentFile(), tbi.getName().substring(0, tbi.getName().length()-4));
+			TabixReader htsjdk = new TabixReader(dataFile.toString());
+			CachedTabixReader cached = new CachedTabixReader(dataFile, cache.fetch(dataFile));
+			CachedTabixReader blocked = new CachedTabixReader(dataFile, cache.fetch(dataFile), blockCache);
+			assertEquals(htsjdk.getChromosomes(), cached.getChromosomes());
+			for (String chr: htsjdk.getChromosomes()) {
+				//whole chromosome then random regions
+				numberRecords += compare(htsjdk.query(chr, 0, Integer.MAX_VALUE), cached.query(chr, 0, Integer.MAX_VALUE), dataFile);
+				compare(htsjdk.query(chr, 0, Integer.MAX_VALUE), blocked.query(chr, 0, Integer.MAX_VALUE), dataFile);
+				for (int i=0; i< 200; i++) {
+					int start = r.nextInt(70000000);
+					int stop = start + 1 + r.nextInt(i % 2 == 0 ? 1000 : 2000000);
+					compare(htsjdk.query(chr, start, stop), cached.query(chr, start, stop), dataFile);
+					compare(htsjdk.query(chr, start, stop), blocked.query(chr, start, stop), dataFile);
+					String region = chr+":"+(start+1)+"-"+stop;
+					compare(htsjdk.query(region), cached.query(region), dataFile);
+				}
+			}
+			htsjdk.close();
+			cached.close();
+			blocked.close();
+		}
+		assertTrue(numberRecords > 1000);
+		assertTrue(blockCache.getStats().getLong("hits") > 0);
+		assertTrue(blockCache.getStats().getLong("evicted") > 0);
+		//the second fetch is from the cache
+		File tbi = tbis[0];
+		File dataFile = new File(tbi.getParentFile(), tbi.getName().substring(0, tbi.getName().length()-4));
+		assertTrue(cache.fetch(dataFile) == cache.fetch(dataFile));
+	}
+
+	private static int compare(TabixReader.Iterator expected, CachedTabixReader.Iterator found, File dataFile) throws Exception {
+		int n = 0;
+		String e = null;
+		while ((e = expected.next()) != null) {
+			assertEquals(dataFile.toString(), e, found.next());
+			n++;
+		}
+		assertNull(dataFile.toString(), found.next());
+		return n;
+	}
+}
@@ -10,6 +10,9 @@ import org.json.JSONObject;
 import org.junit.Test;
 import edu.utah.hci.apps.GQueryCLI;
 import edu.utah.hci.misc.Util;
+import edu.utah.hci.query.MasterQuery;
+import edu.utah.hci.query.QueryRequest;
+import edu.utah.hci.query.UserQuery;
 
 import static org.junit.Assert.*;
 
@@ -26,8 +29,7 @@ public class GQueryCLITests {
 
 	java -jar -Xmx10G /Users/u0028003/Code/GQuery/target/GQueryIndexer.jar \
 	   -c /Users/u0028003/Code/GQuery/TestResources/b37Chr20-21ChromLen.bed \
-	   -d /Users/u0028003/Code/GQuery/TestResources/TempFiles/Data \
-	   -t /Users/u0028003/Code/GQuery/TestResources/Htslib_1.10.2/bin/
+	   -d /Users/u0028003/Code/GQuery/TestResources/TempFiles/Data
 
 	# Final output: '0.1 Min to index 11 files containing 27,611 records'
 	
@@ -446,14 +448,39 @@ public class GQueryCLITests {
 		assertTrue(oldSources+ " <- old data records don't match new data -> "+newSources, compareHashSets(oldData, newData));
 	}
 	
+	@Test
+	public void resultCacheWarningsTest() throws Exception{
+		MasterQuery mq = new MasterQuery(dataDir, 2, 2, 0, 0, 0, false);
+		mq.enableResultCache(0);
+		try {
+			//same valid region, different bad lines, the second is from the cache but only warns about its own input
+			JSONObject first = cacheQuery(mq, "chr20:4000000-14000000", "chrZZ:1-100");
+			assertFalse(first.has("fromResultCache"));
+			assertEquals(1, first.getJSONArray("warningMessages").length());
+			assertTrue(first.getJSONArray("warningMessages").getString(0).contains("chrZZ:1-100"));
+			
+			JSONObject second = cacheQuery(mq, "chr20:4000000-14000000", "chrYY:1-100");
+			assertTrue(second.getBoolean("fromResultCache"));
+			assertEquals(1, second.getJSONArray("warningMessages").length());
+			assertTrue(second.getJSONArray("warningMessages").getString(0).contains("chrYY:1-100"));
+			assertEquals(first.getJSONArray("queryResults").toString(), second.getJSONArray("queryResults").toString());
+			
+			JSONObject third = cacheQuery(mq, "chr20:4000000-14000000", null);
+			assertTrue(third.getBoolean("fromResultCache"));
+			assertFalse(third.has("warningMessages"));
+		} finally {
+			mq.shutdown();
+		}
+	}
 	
-	
-	
-	
-	
-	
-	
-	
+	private static JSONObject cacheQuery(MasterQuery mq, String region, String badRegion) throws Exception {
+		UserQuery uq = new UserQuery().fetchData();
+		uq.addBedRegion(region);
+		if (badRegion != null) uq.addBedRegion(badRegion);
+		QueryRequest qr = new QueryRequest(mq, null, uq.fetchQueryOptions(), null);
+		assertNull(qr.getErrTxtForUser());
+		return qr.getJsonResults();
+	}
 	
 	public static boolean compareHashSets(HashSet<String> a, HashSet<String> b) {
 		if (a.size() != b.size()) return false;
@@ -1,12 +1,24 @@
 package edu.utah.hci.test;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileWriter;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.Test;
 import edu.utah.hci.apps.GQueryIndexer;
+import edu.utah.hci.indexer.DirectoryIndexer;
 import edu.utah.hci.misc.Util;
 import static org.junit.Assert.*;
 
@@ -40,16 +52,10 @@ public class GQueryIndexerTests {
 
 
 
-		//Htslib
-		File htslibDir = new File(testResourceDir, "Htslib_1.10.2/bin");
-		assertTrue(htslibDir.exists());
-
-
 		//Create cmd
 		String[] cmd = {
 				"-c", chromFile.toString(),
-				"-d", testIndexFolder.toString(),
-				"-t", htslibDir.toString()
+				"-d", testIndexFolder.toString()
 		};
 
 		//Create a GQueryIndexer instance, this fires the indexing too
@@ -64,13 +70,281 @@ public class GQueryIndexerTests {
 		//check one of the dirs
 		File gi = new File(testResourceDir, "TestIndexDeleteMe/Hg19/.GQueryIndex");
 		File[] gif = Util.extractFiles(gi);
-		assertTrue(gif.length == 7);
+		//fileInfo.txt.gz and a chrXX.qi.bed.gz, .tbi, and .qi.bin for 20, 21, 22
+		assertTrue(gif.length == 10);
 
 		//cleanup
 		Util.deleteDirectory(testIndexFolder);
 		
 	}
 	
+	@Test
+	public void checkpointTest() throws Exception{
+		File testIndexFolder = copyTestData();
+		try {
+			File vcfDir = new File(testIndexFolder, "B37/VCFData");
+			File indexDir = new File(vcfDir, GQueryIndexer.INDEX_DIR_NAME);
+			File stagingDir = new File(vcfDir, GQueryIndexer.STAGING_DIR_NAME);
+			File priorDir = new File(vcfDir, GQueryIndexer.PRIOR_DIR_NAME);
+
+			//clean build
+			GQueryIndexer gqi = new GQueryIndexer(makeCmd(testIndexFolder, false));
+			TreeMap<String, String> clean = loadIndex(indexDir);
+			assertTrue(clean.containsKey("20.qi.bed.gz"));
+			assertTrue(clean.containsKey("22.qi.bed.gz"));
+
+			//interrupted run that finished 20, the 21 line is torn and 22 never wrote its files
+			File saved = new File(testIndexFolder, "savedIndex");
+			Files.move(indexDir.toPath(), saved.toPath());
+			makeStaging(gqi, vcfDir, new File(saved, "20"));
+			PrintWriter out = new PrintWriter(new FileWriter(new File(stagingDir, DirectoryIndexer.CHECKPOINT_FILE_NAME), true));
+			out.println("done\t22\tok");
+			out.print("done\t21");
+			out.close();
+
+			//the resumed run finishes 21 then dies on 22, whose index file can't be written
+			File blocked22 = new File(stagingDir, "22.qi.bed.gz");
+			assertTrue(blocked22.mkdir());
+			StringBuilder forkLog = new StringBuilder();
+			assertTrue(forkIndexer(testIndexFolder, forkLog) != 0);
+			assertTrue(forkLog.toString().contains("FATAL error with indexing "+vcfDir+" 22:"));
+			assertFalse(new File(indexDir, "20.qi.bed.gz").exists());
+			//rewritten on resume, the torn line is gone and each done line is whole
+			ArrayList<String> done = new ArrayList<String>();
+			for (String line: Files.readAllLines(new File(stagingDir, DirectoryIndexer.CHECKPOINT_FILE_NAME).toPath())) {
+				if (line.startsWith("done")) done.add(line);
+			}
+			assertEquals(Arrays.asList("done\t20\tok", "done\t21\tok"), done);
+			Util.deleteDirectory(blocked22);
+
+			//a second resume reuses both
+			String log = runIndexer(testIndexFolder, false);
+			assertTrue(log.contains("Resuming from the checkpoint, 2 chromosome(s) already indexed"));
+			assertTrue(log.contains("\t20\tCheckpointed"));
+			assertTrue(log.contains("\t21\tCheckpointed"));
+			assertFalse(log.contains("\t22\tCheckpointed"));
+			assertEquals(clean, loadIndex(indexDir));
+			assertFalse(stagingDir.exists());
+
+			//killed between the publish renames, the prior index is restored
+			Files.move(indexDir.toPath(), priorDir.toPath());
+			log = runIndexer(testIndexFolder, false);
+			assertTrue(log.contains("Restored the prior index from an interrupted run"));
+			assertTrue(indexDir.exists());
+			assertFalse(priorDir.exists());
+			assertEquals(clean, loadIndex(indexDir));
+
+			//a data file changed since the interrupted run, its staging dir is discarded
+			Util.deleteDirectory(indexDir);
+			makeStaging(gqi, vcfDir, new File(saved, "20"));
+			File cosmic = new File(vcfDir, "chr20_cosmic.vcf.gz");
+			assertTrue(cosmic.setLastModified(cosmic.lastModified() + 60000));
+			log = runIndexer(testIndexFolder, false);
+			assertFalse(log.contains("Resuming from the checkpoint"));
+			assertFalse(log.contains("Checkpointed"));
+			assertFalse(stagingDir.exists());
+			TreeMap<String, String> rebuilt = loadIndex(indexDir);
+			assertEquals(clean.keySet(), rebuilt.keySet());
+			for (String name: clean.keySet()) {
+				if (name.equals("fileInfo.txt.gz") == false) assertEquals(name, clean.get(name), rebuilt.get(name));
+			}
+			assertTrue(rebuilt.get("fileInfo.txt.gz").contains("\t"+cosmic.lastModified()+"\t"));
+		} finally {
+			Util.deleteDirectory(testIndexFolder);
+		}
+	}
+
+	@Test
+	public void incrementalUpdateTest() throws Exception{
+		File testIndexFolder = copyTestData();
+		try {
+			File vcfDir = new File(testIndexFolder, "B37/VCFData");
+			File indexDir = new File(vcfDir, GQueryIndexer.INDEX_DIR_NAME);
+			runIndexer(testIndexFolder, false);
+			TreeMap<String, Integer> priorIds = loadFileIds(indexDir);
+			assertEquals(3, priorIds.size());
+
+			//modify one, delete one, and add one
+			File modified = new File(vcfDir, "chr20_cosmic.vcf.gz");
+			File deleted = new File(vcfDir, "chr20-21TRF037738.vcf.gz");
+			File unchanged = new File(vcfDir, "chr20_1_3Mut2.vcf.gz");
+			File added = new File(vcfDir, "added.vcf.gz");
+			File thor = new File(testIndexFolder, "B37/Thor/3994-7.mt2.pass.vcf.gz");
+			Files.copy(thor.toPath(), modified.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.copy(new File(thor+".tbi").toPath(), new File(modified+".tbi").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			assertTrue(modified.setLastModified(modified.lastModified() + 60000));
+			assertTrue(deleted.delete());
+			assertTrue(new File(deleted+".tbi").delete());
+			File clinvar = new File(testIndexFolder, "B38/clinvar_B38_chr21.vcf.gz");
+			Files.copy(clinvar.toPath(), added.toPath());
+			Files.copy(new File(clinvar+".tbi").toPath(), new File(added+".tbi").toPath());
+
+			String log = runIndexer(testIndexFolder, false);
+			assertTrue(log.contains("1 Unchanged, 1 new, 1 modified, and 1 deleted data sources"));
+			TreeMap<String, Integer> ids = loadFileIds(indexDir);
+			assertEquals(3, ids.size());
+			//unchanged and modified files keep their ids, the new file takes the deleted file's
+			assertEquals(priorIds.get(relativePath(unchanged)), ids.get(relativePath(unchanged)));
+			assertEquals(priorIds.get(relativePath(modified)), ids.get(relativePath(modified)));
+			assertEquals(priorIds.get(relativePath(deleted)), ids.get(relativePath(added)));
+			TreeMap<String, ArrayList<String>> updated = loadNamedIntervals(indexDir);
+
+			//same intervals and files as a rebuild from scratch
+			Util.deleteDirectory(indexDir);
+			runIndexer(testIndexFolder, true);
+			TreeMap<String, ArrayList<String>> rebuilt = loadNamedIntervals(indexDir);
+			assertEquals(rebuilt.keySet(), updated.keySet());
+			for (String chr: rebuilt.keySet()) {
+				assertEquals(chr, rebuilt.get(chr).size(), updated.get(chr).size());
+				assertEquals(chr, rebuilt.get(chr), updated.get(chr));
+			}
+			//the modified file's prior intervals are gone, it had records on 21, the new content has none
+			assertTrue(updated.containsKey("21.qi.bed.gz"));
+			for (String interval: updated.get("21.qi.bed.gz")) assertFalse(interval, interval.contains("chr20_cosmic"));
+		} finally {
+			Util.deleteDirectory(testIndexFolder);
+		}
+	}
+
+	/**Returns the path of the data file as saved in the fileInfo.txt.gz.*/
+	private String relativePath(File dataFile) {
+		return dataFile.getPath().substring(testResourceDir.getPath().length() + 1);
+	}
+
+	/**Returns data file path : id from the fileInfo.txt.gz.*/
+	private static TreeMap<String, Integer> loadFileIds(File indexDir) throws Exception {
+		TreeMap<String, Integer> ids = new TreeMap<String, Integer>();
+		BufferedReader in = Util.fetchBufferedReader(new File(indexDir, "fileInfo.txt.gz"));
+		//skip header
+		in.readLine();
+		String line;
+		while ((line = in.readLine()) != null) {
+			//Id0 Size1 LastMod2 Name3
+			String[] f = Util.TAB.split(line);
+			ids.put(f[3], Integer.parseInt(f[0]));
+		}
+		in.close();
+		return ids;
+	}
+
+	/**Returns chrXX.qi.bed.gz : its intervals with the file ids replaced by the sorted data file paths.*/
+	private static TreeMap<String, ArrayList<String>> loadNamedIntervals(File indexDir) throws Exception {
+		TreeMap<Integer, String> idFile = new TreeMap<Integer, String>();
+		TreeMap<String, Integer> fileIds = loadFileIds(indexDir);
+		for (String f: fileIds.keySet()) idFile.put(fileIds.get(f), f);
+		TreeMap<String, ArrayList<String>> chrIntervals = new TreeMap<String, ArrayList<String>>();
+		for (File f: Util.extractFiles(indexDir, ".qi.bed.gz")) {
+			ArrayList<String> intervals = new ArrayList<String>();
+			BufferedReader in = Util.fetchBufferedReader(f);
+			String line;
+			while ((line = in.readLine()) != null) {
+				//chr start stop ids
+				String[] t = Util.TAB.split(line);
+				String[] names = Util.COMMA.split(t[3]);
+				for (int i=0; i< names.length; i++) {
+					names[i] = idFile.get(Integer.parseInt(names[i]));
+					assertNotNull(line, names[i]);
+				}
+				Arrays.sort(names);
+				intervals.add(t[0]+"\t"+t[1]+"\t"+t[2]+"\t"+String.join(",", names));
+			}
+			in.close();
+			chrIntervals.put(f.getName(), intervals);
+		}
+		return chrIntervals;
+	}
+
+	/**Copies the test data and removes the VCFData index so it's built from scratch.*/
+	private File copyTestData() {
+		File testIndexFolder = new File(testResourceDir, "TestIndexDeleteMe");
+		if (testIndexFolder.exists()) Util.deleteDirectory(testIndexFolder);
+		testIndexFolder.mkdirs();
+		assertTrue(Util.copyDirectoryRecursive(new File(testResourceDir, "Data"), testIndexFolder, null));
+		Util.deleteDirectory(new File(testIndexFolder, "B37/VCFData/"+GQueryIndexer.INDEX_DIR_NAME));
+		return testIndexFolder;
+	}
+
+	private String[] makeCmd(File dataDir, boolean rebuildAll) {
+		ArrayList<String> cmd = new ArrayList<String>(Arrays.asList("-c", new File(testResourceDir, "b37Chr20-21ChromLen.bed").toString(), "-d", dataDir.toString()));
+		if (rebuildAll) cmd.add("-r");
+		return cmd.toArray(new String[cmd.size()]);
+	}
+
+	/**Runs the GQueryIndexer and returns what it printed.*/
+	private String runIndexer(File dataDir, boolean rebuildAll) {
+		PrintStream stdOut = System.out;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(bytes, true));
+		try {
+			new GQueryIndexer(makeCmd(dataDir, rebuildAll));
+		} finally {
+			System.setOut(stdOut);
+		}
+		String log = bytes.toString();
+		stdOut.print(log);
+		return log;
+	}
+
+	/**Runs the GQueryIndexer in its own jvm, for runs that exit, and returns the exit code. What it printed is appended to the log.*/
+	private int forkIndexer(File dataDir, StringBuilder log) throws Exception {
+		ArrayList<String> cmd = new ArrayList<String>();
+		cmd.add(new File(System.getProperty("java.home"), "bin/java").toString());
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(GQueryIndexer.class.getName());
+		cmd.addAll(Arrays.asList(makeCmd(dataDir, false)));
+		Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+		BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+		String line;
+		while ((line = in.readLine()) != null) log.append(line).append("\n");
+		in.close();
+		int exitCode = p.waitFor();
+		System.out.print(log);
+		return exitCode;
+	}
+
+	/**Makes the staging dir a killed full build of the dir leaves once the chrom is done, the checkpoint plan matches the current data files.*/
+	private static void makeStaging(GQueryIndexer gqi, File dir, File chromIndexFiles) throws Exception {
+		File stagingDir = new File(dir, GQueryIndexer.STAGING_DIR_NAME);
+		stagingDir.mkdir();
+		String chr = chromIndexFiles.getName();
+		File priorDir = chromIndexFiles.getParentFile();
+		for (File f: Util.extractFiles(priorDir)) {
+			if (f.getName().startsWith(chr+".")) Files.copy(f.toPath(), new File(stagingDir, f.getName()).toPath());
+		}
+		PrintWriter out = new PrintWriter(new FileWriter(new File(stagingDir, DirectoryIndexer.CHECKPOINT_FILE_NAME)));
+		out.println("#GQueryIndexCheckpoint\t1");
+		out.println("prior\tnone");
+		TreeMap<String, Integer> chrLengths = gqi.getChrLengths();
+		for (String c: chrLengths.keySet()) out.println("chrom\t"+c+"\t"+chrLengths.get(c));
+		//new builds number the data files in name order
+		File[] dataFiles = Util.extractFiles(dir, ".gz");
+		Arrays.sort(dataFiles);
+		for (int i=0; i< dataFiles.length; i++) {
+			File f = dataFiles[i];
+			out.println("file\t"+i+"\t"+f.length()+"\t"+f.lastModified()+"\t"+f.getPath().substring(gqi.getToTruncatePoint()));
+		}
+		out.println("done\t"+chr+"\tok");
+		out.close();
+	}
+
+	/**Returns file name : the text of each gzipped file, or the md5 of the others, in the index dir.*/
+	private static TreeMap<String, String> loadIndex(File indexDir) throws Exception {
+		TreeMap<String, String> index = new TreeMap<String, String>();
+		for (File f: Util.extractFiles(indexDir)) {
+			if (f.getName().endsWith(".gz")) {
+				StringBuilder sb = new StringBuilder();
+				BufferedReader in = Util.fetchBufferedReader(f);
+				String line;
+				while ((line = in.readLine()) != null) sb.append(line).append('\n');
+				in.close();
+				index.put(f.getName(), sb.toString());
+			}
+			else index.put(f.getName(), md5CheckSum(f));
+		}
+		return index;
+	}
+
 	public static String md5CheckSum(File f) {
 		String md5 = "";
 		try {
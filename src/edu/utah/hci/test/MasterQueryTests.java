@@ -0,0 +1,62 @@
+package edu.utah.hci.test;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import edu.utah.hci.apps.GQueryIndexer;
+import edu.utah.hci.misc.Util;
+import edu.utah.hci.query.MasterQuery;
+import edu.utah.hci.query.SingleQuery;
+
+import static org.junit.Assert.*;
+
+/**Checks the resident index memory budget of a lazy MasterQuery is kept across reloads. Runs on an indexed copy of the test data.*/
+public class MasterQueryTests {
+
+	private File testResourceDir = new File (System.getProperty("user.dir")+"/TestResources");
+
+	@Test
+	public void reloadResidentBytesTest() throws Exception{
+		File testDataDir = new File(testResourceDir, "TestReloadDeleteMe");
+		if (testDataDir.exists()) Util.deleteDirectory(testDataDir);
+		testDataDir.mkdirs();
+		try {
+			Util.copyDirectoryRecursive(new File(testResourceDir, "Data"), testDataDir, null);
+			String[] cmd = {"-c", new File(testResourceDir, "b37Chr20-21ChromLen.bed").toString(), "-d", testDataDir.toString()};
+			new GQueryIndexer(cmd);
+
+			MasterQuery mq = new MasterQuery(testDataDir, 2, 2, 64, 0, 0, true);
+			try {
+				//the last to be warmed up, still unloaded when a reload replaces it
+				SingleQuery old = null;
+				for (SingleQuery sq: mq.getSnapshot().getQueryIndexes().values()) old = sq;
+				File info = new File(old.getIndexDir(), "fileInfo.txt.gz");
+				assertTrue(info.setLastModified(info.lastModified() + 60000));
+				synchronized (old) {
+					assertFalse(old.isLoaded());
+					assertTrue(mq.reloadChangedIndexes());
+					//a request still on the old snapshot loads it, it's searched from the files
+					old.load();
+				}
+				assertEquals(0, old.getResidentBytes());
+
+				//the budget holds just the current indexes
+				ArrayList<SingleQuery> current = new ArrayList<SingleQuery>(mq.getSnapshot().getQueryIndexes().values());
+				assertFalse(current.contains(old));
+				mq.loadQueries(current);
+				long bytes = 0;
+				for (SingleQuery sq: current) {
+					assertTrue(sq.getIndexDir().toString(), sq.getResidentBytes() > 0);
+					bytes += sq.getResidentBytes();
+				}
+				assertEquals(bytes, mq.getResidentIndexBytesUsed());
+			} finally {
+				mq.shutdown();
+			}
+		} finally {
+			Util.deleteDirectory(testDataDir);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package edu.utah.hci.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.utah.hci.indexer.RecordCoordinateParser;
+import edu.utah.hci.misc.Util;
+
+/**Compares the speed of the RecordCoordinateParser to the prior split and regex based indexer parser on the vcf records in
+ * the TestResources. JMH isn't part of the build so this does its own warm up and timing, run it from the project dir:
+ * java -cp target/classes:yourDependencies edu.utah.hci.test.RecordCoordinateParserBenchmark [numberRounds] */
+public class RecordCoordinateParserBenchmark {
+
+	private static final Pattern END_POSITION = Pattern.compile(".*END=(\\d+).*", Pattern.CASE_INSENSITIVE);
+
+	public static void main(String[] args) throws Exception {
+		int numberRounds = 20;
+		if (args.length != 0) numberRounds = Integer.parseInt(args[0]);
+
+		File dataDir = new File (System.getProperty("user.dir")+"/TestResources/Data");
+		ArrayList<String> records = new ArrayList<String>();
+		for (File f: Util.fetchAllFilesRecursively(dataDir, ".vcf.gz")) records.addAll(loadRecords(f));
+		Util.pl(records.size()+" vcf records\n");
+
+		RecordCoordinateParser parser = new RecordCoordinateParser(false);
+		for (int r = 0; r< numberRounds; r++) {
+			//legacy
+			long startTime = System.nanoTime();
+			long sum = 0;
+			for (String record: records) {
+				int[] ss = legacyParseVcf(record);
+				if (ss != null) sum += ss[1] - ss[0];
+			}
+			long legacyNs = System.nanoTime() - startTime;
+
+			//new
+			startTime = System.nanoTime();
+			long newSum = 0;
+			for (String record: records) {
+				if (parser.parseVcf(record)) newSum += parser.getStop() - parser.getStart();
+			}
+			long newNs = System.nanoTime() - startTime;
+
+			if (sum != newSum) throw new Exception("The parsers disagree!");
+			Util.pl("Round "+r+"\tLegacy ns/record "+Util.formatNumberOneFraction((double)legacyNs/records.size())+
+					"\tNew ns/record "+Util.formatNumberOneFraction((double)newNs/records.size()));
+		}
+	}
+
+	public static ArrayList<String> loadRecords(File f) throws Exception {
+		ArrayList<String> records = new ArrayList<String>();
+		BufferedReader in = Util.fetchBufferedReader(f);
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.length() == 0 || line.startsWith("#")) continue;
+			records.add(line);
+		}
+		in.close();
+		return records;
+	}
+
+	/**The prior QueryIndexFileLoader vcf parser, for comparison.*/
+	public static int[] legacyParseVcf(String vcfRecord) {
+		int[] startStop = null;
+		try {
+			String[] t = Util.TAB.split(vcfRecord);
+			startStop = legacyFetchEffectedBps(t);
+		} catch (NumberFormatException e){}
+		return startStop;
+	}
+
+	/**The prior QueryIndexFileLoader bed, maf, etc parser, for comparison.*/
+	public static int[] legacyParse(String record, int[] startStopSub) {
+		int[] startStop = null;
+		try {
+			String[] t = Util.TAB.split(record);
+			int start = Integer.parseInt(t[startStopSub[0]]);
+			start = start- startStopSub[2];
+			int stop = Integer.parseInt(t[startStopSub[1]]);
+			startStop = new int[]{start, stop};
+		} catch (NumberFormatException e){}
+		return startStop;
+	}
+
+	private static int[] legacyFetchEffectedBps(String[] vcf) throws NumberFormatException{
+		int iPos = Integer.parseInt(vcf[1]) - 1;
+		String ref= vcf[3];
+		String alt= vcf[4];
+		if (alt.contains(",") == false) return legacyFetchEffectedBpsSingleAlt(iPos, ref, alt, vcf);
+		String[] alts = Util.COMMA.split(alt);
+		int begin = Integer.MAX_VALUE;
+		int end = -1;
+		for (int i=0; i< alts.length; i++){
+			int[] ss = legacyFetchEffectedBpsSingleAlt(iPos, ref, alts[i], vcf);
+			if (ss == null) continue;
+			if(ss[0] < begin) begin = ss[0];
+			if(ss[1]> end) end = ss[1];
+		}
+		if (begin == Integer.MAX_VALUE) return null;
+		return new int[]{begin, end};
+	}
+
+	private static int[] legacyFetchEffectedBpsSingleAlt(int iPos, String ref, String alt, String[] vcf) throws NumberFormatException{
+		int begin = -1;
+		int end = -1;
+		int lenRef = ref.length();
+		int lenAlt = alt.length();
+		if (alt.contains("<")){
+			Matcher mat = END_POSITION.matcher(vcf[7]);
+			if (mat.matches()) end = Integer.parseInt(mat.group(1));
+			else return null;
+			begin = iPos;
+		}
+		else if (lenRef == lenAlt) {
+			begin = iPos;
+			end = iPos+ lenRef;
+		}
+		else if (lenAlt > lenRef) {
+			begin = iPos;
+			end = iPos+ lenRef +1;
+			if (ref.charAt(0) != alt.charAt(0)) begin--;
+		}
+		else {
+			begin = iPos;
+			end = iPos + lenRef;
+			if (ref.charAt(0) != alt.charAt(0)) begin--;
+		}
+		return new int[]{begin, end};
+	}
+}
@@ -0,0 +1,95 @@
+package edu.utah.hci.test;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import edu.utah.hci.indexer.RecordCoordinateParser;
+import edu.utah.hci.misc.Util;
+
+import static org.junit.Assert.*;
+
+/**Checks the RecordCoordinateParser returns the same coordinates as the prior split and regex based parser.*/
+public class RecordCoordinateParserTests {
+
+	//This resource dir should work provided you haven't moved the directories around
+	private File dataDir = new File (System.getProperty("user.dir")+"/TestResources/Data");
+
+	@Test
+	public void vcfDataFilesTest() throws Exception{
+		RecordCoordinateParser parser = new RecordCoordinateParser(false);
+		ArrayList<File> vcfs = Util.fetchAllFilesRecursively(dataDir, ".vcf.gz");
+		assertTrue(vcfs.size() != 0);
+		long numberChecked = 0;
+		for (File f: vcfs) {
+			for (String record: RecordCoordinateParserBenchmark.loadRecords(f)) {
+				compareVcf(parser, record);
+				numberChecked++;
+			}
+		}
+		assertTrue(numberChecked > 1000);
+	}
+
+	@Test
+	public void vcfRecordsTest() throws Exception{
+		RecordCoordinateParser parser = new RecordCoordinateParser(false);
+		String[] records = {
+				//snv, mnp, ins, del, odd ins and del
+				"20\t100\t.\tG\tA\t.\t.\t.",
+				"20\t100\t.\tGC\tAT\t.\t.\t.",
+				"20\t100\t.\tG\tGATTA\t.\t.\t.",
+				"20\t100\t.\tATTCG\tA\t.\t.\t.",
+				"20\t100\t.\tC\tTTAAT\t.\t.\t.",
+				"20\t100\t.\tAT\tC\t.\t.\t.",
+				//multi alts
+				"20\t100\t.\tATTCG\tA,ATTCGAAA,C\t.\t.\t.",
+				"20\t100\t.\tG\tA,<DEL>\t.\t.\tSVTYPE=DEL;END=500",
+				"20\t100\t.\tG\t<DEL>,<DUP>\t.\t.\tSVTYPE=DEL",
+				//symbolic with END, lower case, the last one wins, none, last column with samples after
+				"20\t100\t.\tN\t<DEL>\t.\t.\tSVTYPE=DEL;END=5000",
+				"20\t100\t.\tN\t<DEL>\t.\t.\tend=5000;SVLEN=-4900",
+				"20\t100\t.\tN\t<DEL>\t.\t.\tCIEND=-10,10;END=4000;SVEND=4500",
+				"20\t100\t.\tN\t<DEL>\t.\t.\tCIEND=-10,10",
+				"20\t100\t.\tN\t<NON_REF>\t.\t.\tEND=120\tGT:DP\t0/0:12",
+				//bad pos or END
+				"20\tx100\t.\tG\tA\t.\t.\t.",
+				"20\t100\t.\tN\t<DEL>\t.\t.\tEND=99999999999",
+				"20\t+100\t.\tG\tA\t.\t.\t."
+		};
+		for (String r: records) compareVcf(parser, r);
+	}
+
+	@Test
+	public void bedRecordsTest() throws Exception{
+		RecordCoordinateParser parser = new RecordCoordinateParser(false);
+		int[] bed = {1,2,0};
+		int[] maf = {5,6,1};
+		String[] beds = {"21\t9683190\t9683272\tENSG00000238411\t0\t+", "21\t9683190\t9683272", "21\tstart\t9683272", "21\t9683190"};
+		for (String r: beds) compare(parser, r, bed);
+		String maf1 = "TP53\t7157\tbroad.mit.edu\t37\t17\t7577120\t7577120\t+\tMissense_Mutation";
+		compare(parser, maf1, maf);
+	}
+
+	private static void compareVcf(RecordCoordinateParser parser, String record) {
+		int[] legacy = RecordCoordinateParserBenchmark.legacyParseVcf(record);
+		boolean parsed = parser.parseVcf(record);
+		assertTrue("Parsed differs for "+record, parsed == (legacy != null));
+		if (parsed) {
+			assertEquals("Start differs for "+record, legacy[0], parser.getStart());
+			assertEquals("Stop differs for "+record, legacy[1], parser.getStop());
+		}
+	}
+
+	private static void compare(RecordCoordinateParser parser, String record, int[] startStopSubtract) {
+		int[] legacy = null;
+		try {
+			legacy = RecordCoordinateParserBenchmark.legacyParse(record, startStopSubtract);
+		} catch (ArrayIndexOutOfBoundsException e) {}
+		boolean parsed = parser.parse(record, startStopSubtract);
+		assertTrue("Parsed differs for "+record, parsed == (legacy != null));
+		if (parsed) {
+			assertEquals("Start differs for "+record, legacy[0], parser.getStart());
+			assertEquals("Stop differs for "+record, legacy[1], parser.getStop());
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package edu.utah.hci.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import edu.utah.hci.misc.RoaringBitmap;
+
+import static org.junit.Assert.*;
+
+/**Checks the RoaringBitmap against a TreeSet for sparse, dense, and mixed sets.*/
+public class RoaringBitmapTests {
+
+	@Test
+	public void addTest() throws Exception{
+		Random r = new Random(1);
+		//sparse, dense in one container, spread across containers
+		int[][] rangeCounts = {{1000, 50}, {65536, 20000}, {1000000, 30000}};
+		for (int[] rc: rangeCounts) {
+			RoaringBitmap rb = new RoaringBitmap();
+			TreeSet<Integer> ts = new TreeSet<Integer>();
+			for (int i=0; i< rc[1]; i++) {
+				int x = r.nextInt(rc[0]);
+				rb.add(x);
+				ts.add(x);
+			}
+			compare(ts, rb);
+		}
+	}
+
+	@Test
+	public void serializedOrTest() throws Exception{
+		Random r = new Random(2);
+		RoaringBitmap union = new RoaringBitmap();
+		TreeSet<Integer> ts = new TreeSet<Integer>();
+		for (int round = 0; round < 20; round++) {
+			//alternate small and large sets so array and bitmap containers are merged both ways
+			int count = round % 3 == 0 ? 6000 : 200;
+			int[] ids = new int[count];
+			for (int i=0; i< count; i++) ids[i] = r.nextInt(round % 3 == 0 ? 70000 : 200000);
+			Arrays.sort(ids);
+			RoaringBitmap rb = RoaringBitmap.fromSorted(ids, count);
+			for (int id: ids) ts.add(id);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(12345);
+			rb.serialize(out);
+			out.close();
+			assertEquals(rb.getSerializedSize() + 4, bytes.size());
+
+			union.or(ByteBuffer.wrap(bytes.toByteArray()), 4);
+			compare(ts, union);
+		}
+		union.clear();
+		assertTrue(union.isEmpty());
+		assertEquals(0, union.toArray().length);
+	}
+
+	@Test
+	public void orTest() throws Exception{
+		Random r = new Random(4);
+		RoaringBitmap union = new RoaringBitmap();
+		TreeSet<Integer> ts = new TreeSet<Integer>();
+		for (int round = 0; round < 20; round++) {
+			//alternate small and large sets so array and bitmap containers are merged both ways
+			int count = round % 3 == 0 ? 6000 : 200;
+			RoaringBitmap rb = new RoaringBitmap();
+			TreeSet<Integer> other = new TreeSet<Integer>();
+			for (int i=0; i< count; i++) {
+				int x = r.nextInt(round % 3 == 0 ? 70000 : 200000);
+				rb.add(x);
+				other.add(x);
+			}
+			union.or(rb);
+			ts.addAll(other);
+			compare(ts, union);
+			//other is unchanged
+			compare(other, rb);
+		}
+		//a sparse bitmap container left by and() of two dense ones
+		RoaringBitmap dense = new RoaringBitmap();
+		RoaringBitmap mask = new RoaringBitmap();
+		TreeSet<Integer> expect = new TreeSet<Integer>();
+		for (int i=0; i< 5000; i++) {
+			dense.add(i * 2);
+			mask.add(i * 3);
+			if (i * 2 % 3 == 0) expect.add(i * 2);
+		}
+		dense.and(mask);
+		RoaringBitmap rb = RoaringBitmap.fromSorted(new int[]{1, 7, 70000}, 3);
+		rb.or(dense);
+		expect.add(1);
+		expect.add(7);
+		expect.add(70000);
+		compare(expect, rb);
+	}
+
+	@Test
+	public void andTest() throws Exception{
+		Random r = new Random(3);
+		//sparse and dense sets, intersected both ways so each pairing of array and bitmap containers is hit
+		int[][] rangeCounts = {{200000, 300}, {140000, 30000}, {70000, 8000}};
+		for (int[] a: rangeCounts) {
+			for (int[] b: rangeCounts) {
+				RoaringBitmap rbA = new RoaringBitmap();
+				RoaringBitmap rbB = new RoaringBitmap();
+				TreeSet<Integer> tsA = new TreeSet<Integer>();
+				TreeSet<Integer> tsB = new TreeSet<Integer>();
+				for (int i=0; i< a[1]; i++) {
+					int x = r.nextInt(a[0]);
+					rbA.add(x);
+					tsA.add(x);
+				}
+				for (int i=0; i< b[1]; i++) {
+					int x = r.nextInt(b[0]);
+					rbB.add(x);
+					tsB.add(x);
+				}
+				for (int i=0; i< 1000; i++) {
+					int x = r.nextInt(a[0]);
+					assertEquals(tsA.contains(x), rbA.contains(x));
+				}
+				rbA.and(rbB);
+				tsA.retainAll(tsB);
+				compare(tsA, rbA);
+				//other is unchanged
+				compare(tsB, rbB);
+			}
+		}
+		RoaringBitmap rb = RoaringBitmap.fromSorted(new int[]{1, 5, 70000}, 3);
+		rb.and(new RoaringBitmap());
+		assertTrue(rb.isEmpty());
+	}
+
+	private static void compare(TreeSet<Integer> ts, RoaringBitmap rb) {
+		assertEquals(ts.size(), rb.getCardinality());
+		int[] values = rb.toArray();
+		int i = 0;
+		for (Integer x: ts) assertEquals(x.intValue(), values[i++]);
+	}
+}
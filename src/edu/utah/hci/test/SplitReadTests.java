@@ -0,0 +1,132 @@
+package edu.utah.hci.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import edu.utah.hci.apps.GQueryIndexer;
+import edu.utah.hci.misc.Util;
+import edu.utah.hci.query.MasterQuery;
+import edu.utah.hci.query.QueryRequest;
+import edu.utah.hci.query.UserQuery;
+import edu.utah.hci.tabix.ParsedTabixIndex;
+import edu.utah.hci.tabix.TabixDataQuery;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+
+import static org.junit.Assert.*;
+
+/**Checks wide reads split across the fetch threads return the same records, in the same order, as reading them whole. Runs on a copy
+ * of the test data plus a bed of overlapping intervals so records start before a split position and end after it.*/
+public class SplitReadTests {
+
+	private File testResourceDir = new File (System.getProperty("user.dir")+"/TestResources");
+
+	//a 5kb interval every 400bp, every split position is spanned by a dozen records
+	private static final int INTERVAL_SIZE = 5000;
+	private static final int INTERVAL_STEP = 400;
+	private static final int INTERVALS_STOP = 20000000;
+	private static final int NUMBER_FETCH_THREADS = 6;
+
+	@Test
+	public void splitTest() throws Exception{
+		File testDataDir = new File(testResourceDir, "TestSplitDeleteMe");
+		if (testDataDir.exists()) Util.deleteDirectory(testDataDir);
+		testDataDir.mkdirs();
+		try {
+			Util.copyDirectoryRecursive(new File(testResourceDir, "Data"), testDataDir, null);
+			File intervals = new File(testDataDir, "Split/overlappingIntervals.bed.gz");
+			intervals.getParentFile().mkdirs();
+			writeIntervals(intervals);
+			String[] cmd = {"-c", new File(testResourceDir, "b37Chr20-21ChromLen.bed").toString(), "-d", testDataDir.toString()};
+			new GQueryIndexer(cmd);
+
+			String[] regions = {"chr20:1-63025520", "chr20:4000000-14000000", "chr20:13238000-13239000", "chr21:1-48129895"};
+
+			//whole reads
+			MasterQuery whole = new MasterQuery(testDataDir, 2, NUMBER_FETCH_THREADS, 0, 0, 0, false);
+			whole.setMinSplitBytes(Long.MAX_VALUE);
+			QueryRequest wholeRequest = query(whole, regions);
+			assertEquals(0, wholeRequest.getNumberSplitReads());
+			HashMap<String, ArrayList<String>> wholeRecords = fetchRecords(wholeRequest, testDataDir);
+			whole.shutdown();
+
+			//every read with more than one bgzf block is split
+			MasterQuery split = new MasterQuery(testDataDir, 2, NUMBER_FETCH_THREADS, 0, 0, 0, false);
+			split.setMinSplitBytes(1);
+			QueryRequest splitRequest = query(split, regions);
+			assertTrue(splitRequest.getNumberSplitReads() > 3);
+			HashMap<String, ArrayList<String>> splitRecords = fetchRecords(splitRequest, testDataDir);
+			split.shutdown();
+
+			assertEquals(wholeRecords.keySet(), splitRecords.keySet());
+			for (String key: wholeRecords.keySet()) {
+				assertEquals(key, wholeRecords.get(key).size(), splitRecords.get(key).size());
+				assertEquals(key, wholeRecords.get(key), splitRecords.get(key));
+			}
+			assertTrue(wholeRecords.size() > 20);
+
+			//records spanning the split positions of the whole chromosome read of the intervals are returned once
+			ParsedTabixIndex index = new ParsedTabixIndex(new File(intervals+".tbi"));
+			int[] positions = index.fetchSplitPositions("20", 0, 63025520, NUMBER_FETCH_THREADS);
+			assertTrue(positions.length > 1);
+			ArrayList<String> records = splitRecords.get("chr20:1-63025520\tSplit/overlappingIntervals.bed.gz");
+			assertEquals(INTERVALS_STOP / INTERVAL_STEP, records.size());
+			int numberSpanning = 0;
+			int priorStart = -1;
+			for (String r: records) {
+				String[] t = Util.TAB.split(r);
+				int start = Integer.parseInt(t[1]);
+				int stop = Integer.parseInt(t[2]);
+				//in order, no duplicates
+				assertTrue(start > priorStart);
+				priorStart = start;
+				for (int p: positions) if (start < p && stop > p) numberSpanning++;
+			}
+			assertTrue(numberSpanning >= positions.length * (INTERVAL_SIZE / INTERVAL_STEP));
+		} finally {
+			Util.deleteDirectory(testDataDir);
+		}
+	}
+
+	private static QueryRequest query(MasterQuery mq, String[] regions) throws Exception {
+		UserQuery uq = new UserQuery().fetchData();
+		for (String r: regions) uq.addBedRegion(r);
+		QueryRequest qr = new QueryRequest(mq, null, uq.fetchQueryOptions(), null);
+		assertNull(qr.getErrTxtForUser());
+		return qr;
+	}
+
+	/**Returns region tab data file path relative to the data dir : its records in the order returned.*/
+	private static HashMap<String, ArrayList<String>> fetchRecords(QueryRequest qr, File dataDir) {
+		HashMap<String, ArrayList<String>> records = new HashMap<String, ArrayList<String>>();
+		int skip = dataDir.toString().length() + 1;
+		for (TabixDataQuery[] tqs: qr.getChrTabixQueries().values()) {
+			for (TabixDataQuery tq: tqs) {
+				HashMap<File, ArrayList<String>> sr = tq.getSourceResults();
+				for (File f: sr.keySet()) records.put(tq.getInput()+"\t"+f.toString().substring(skip), sr.get(f));
+			}
+		}
+		return records;
+	}
+
+	/**Writes and tabix indexes a bed of overlapping intervals on 20.*/
+	private static void writeIntervals(File bed) throws Exception {
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(bed);
+		TabixIndexCreator indexCreator = new TabixIndexCreator(TabixFormat.BED);
+		for (int start = 0; start < INTERVALS_STOP; start += INTERVAL_STEP) {
+			long filePointer = out.getFilePointer();
+			out.write(("20\t"+start+"\t"+(start + INTERVAL_SIZE)+"\tinterval_"+start+"\n").getBytes(StandardCharsets.US_ASCII));
+			indexCreator.addFeature(new SimpleFeature("20", start+1, start + INTERVAL_SIZE), filePointer);
+		}
+		Index index = indexCreator.finalizeIndex(out.getFilePointer());
+		out.close();
+		index.write(new File(bed+".tbi").toPath());
+	}
+}